@@ -0,0 +1,17 @@
+package com.amdocs.banextractor;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks with GC profiler, so allocation rate per operation (gc.alloc.rate.norm) is reported with the time.
+ * Accepts all JMH options, for example
+ * <pre>java -jar banextractor-bench/target/benchmarks.jar ExtractorBenchmark -p input=GZIP -p position=LAST</pre>
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build()).run();
+    }
+}
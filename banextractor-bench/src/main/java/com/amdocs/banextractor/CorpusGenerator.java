@@ -0,0 +1,125 @@
+package com.amdocs.banextractor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Synthetic bill extract built from the sample document out.xml. Every document has the metadata and summaries of the
+ * sample, its size is set by the number of Call elements of one subscriber. BAN of document i is FIRST_BAN + i, so
+ * benchmark knows where its BAN is. Documents are streamed to the file, corpus can be of any size.
+ */
+@Slf4j
+public class CorpusGenerator {
+    public static final long FIRST_BAN = 300000000000L;
+    private static final String TEMPLATE = "/out.xml";
+    private static final String TAG_START = "<att:MixedBillService";
+    private static final String TAG_TITAN_BAN = "<TITAN_BAN>";
+    private static final String TAG_WIRELESS_BAN = "<WIRELESS_BAN>";
+
+    private final String head;
+    private final String tail;
+    private final String call;
+
+    public CorpusGenerator() throws IOException {
+        String template = readTemplate();
+        int wireless = template.indexOf("<Wireless>");
+        int wirelessEnd = template.indexOf("</Wireless>");
+        int call = template.indexOf("<Call>");
+        head = template.substring(template.indexOf(TAG_START), wireless) +
+                "<Wireless>\n<WirelessSubscriber>\n<Subscribers>\n<TelecomServiceAsset>\n<Calls>\n";
+        tail = "</Calls>\n</TelecomServiceAsset>\n</Subscribers>\n</WirelessSubscriber>\n" + template.substring(wirelessEnd).trim() + "\n";
+        this.call = template.substring(call, template.indexOf("</Call>", call) + "</Call>".length()) + "\n";
+    }
+
+    private static String readTemplate() throws IOException {
+        try (InputStream inputStream = CorpusGenerator.class.getResourceAsStream(TEMPLATE)) {
+            if (inputStream == null)
+                throw new FileNotFoundException("Template " + TEMPLATE + " isn't in class path");
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1)
+                outputStream.write(buffer, 0, length);
+            return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    public static String getBAN(long document) {
+        return String.valueOf(FIRST_BAN + document);
+    }
+
+    /** Number of documents of the given size needed for the corpus size */
+    public long getDocuments(long corpusSize, int documentSize) {
+        return Math.max(1, corpusSize / getDocument("0", getCalls(documentSize)).length);
+    }
+
+    private int getCalls(int documentSize) {
+        return Math.max(0, (documentSize - head.length() - tail.length()) / call.length());
+    }
+
+    private byte[] getDocument(String BAN, int calls) {
+        StringBuilder document = new StringBuilder(head.length() + tail.length() + calls * call.length());
+        document.append(replace(replace(head, TAG_TITAN_BAN, BAN), TAG_WIRELESS_BAN, BAN));
+        for (int i = 0; i < calls; i++)
+            document.append(call);
+        return document.append(tail).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String replace(String s, String tag, String value) {
+        int start = s.indexOf(tag);
+        if (start == -1)
+            return s;
+        start += tag.length();
+        return s.substring(0, start) + value + s.substring(s.indexOf('<', start));
+    }
+
+    /** Writes the corpus to temporary file first, so interrupted generation doesn't leave incomplete corpus */
+    public void generate(Path file, long documents, int documentSize, boolean gzip) throws IOException {
+        log.warn("Generating {} with {} documents of {} bytes", file, documents, documentSize);
+        int calls = getCalls(documentSize);
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream outputStream = open(tmp, gzip)) {
+                outputStream.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Bills>\n".getBytes(StandardCharsets.UTF_8));
+                for (long i = 0; i < documents; i++)
+                    outputStream.write(getDocument(getBAN(i), calls));
+                outputStream.write("</Bills>\n".getBytes(StandardCharsets.UTF_8));
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static OutputStream open(Path file, boolean gzip) throws IOException {
+        OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(file), 1024 * 1024);
+        if (!gzip)
+            return outputStream;
+        // generation of multi-GB corpus takes too long with default level, decompression speed is about the same
+        return new GZIPOutputStream(outputStream, 1024 * 1024) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+    }
+
+    /** Generates corpus of megabytes with documents of documentSize bytes, gzipped if file name ends with .gz */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.out.println("java -cp benchmarks.jar com.amdocs.banextractor.CorpusGenerator <fileName> <megabytes> <documentSize>");
+            return;
+        }
+        CorpusGenerator generator = new CorpusGenerator();
+        int documentSize = Integer.parseInt(args[2]);
+        generator.generate(Paths.get(args[0]), generator.getDocuments(Long.parseLong(args[1]) * 1024 * 1024, documentSize),
+                documentSize, args[0].endsWith(".gz"));
+    }
+}
@@ -0,0 +1,88 @@
+package com.amdocs.banextractor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of one BAN from synthetic corpus, parameters are input type, position of BAN in the corpus, output format
+ * and document size. Corpus is generated once into banextractor.bench.dir (temporary directory by default) and reused
+ * by next runs, its size is corpusMb, use -p corpusMb=4096 for multi-GB corpus. Scanned megabytes of uncompressed XML
+ * are reported as megabytes counter, its score is parse throughput in MB/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g"})
+@State(Scope.Benchmark)
+public class ExtractorBenchmark {
+    public enum Position {FIRST, MIDDLE, LAST, ABSENT}
+
+    @Param({"PLAIN", "GZIP"})
+    public String input;
+
+    @Param({"FIRST", "MIDDLE", "LAST", "ABSENT"})
+    public Position position;
+
+    @Param({"XML", "ZIP", "GZIP"})
+    public String format;
+
+    @Param({"16384", "1048576"})
+    public int documentSize;
+
+    @Param({"256"})
+    public long corpusMb;
+
+    private Path corpus;
+    private Path output;
+    private String BAN;
+    private double scannedMb;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public double megabytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path directory = Paths.get(System.getProperty("banextractor.bench.dir", System.getProperty("java.io.tmpdir")), "banextractor-bench");
+        Files.createDirectories(directory);
+        corpus = directory.resolve("corpus-" + corpusMb + "mb-" + documentSize + (input.equals("GZIP") ? ".xml.gz" : ".xml"));
+
+        CorpusGenerator generator = new CorpusGenerator();
+        long documents = generator.getDocuments(corpusMb * 1024 * 1024, documentSize);
+        if (!Files.exists(corpus))
+            generator.generate(corpus, documents, documentSize, input.equals("GZIP"));
+
+        long document;
+        switch (position) {
+            case FIRST: document = 0; break;
+            case MIDDLE: document = documents / 2; break;
+            case LAST: document = documents - 1; break;
+            default: document = -1;
+        }
+        BAN = (document == -1) ? "999999999999" : CorpusGenerator.getBAN(document);
+        // parsing stops after the document, all documents have the same size
+        scannedMb = corpusMb * ((document == -1) ? 1.0 : (document + 1.0) / documents);
+        output = Files.createTempFile(directory, "output", ".out");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public long extract(Throughput throughput) throws IOException {
+        Extractor extractor = Extractor.of(BAN, corpus.toString(), output.toString(), format).setPrintBANs(false).setLogNotFound(false);
+        extractor.runLocal();
+        throughput.megabytes += scannedMb;
+        return Files.size(output);
+    }
+}
@@ -3,12 +3,21 @@ package com.amdocs.banextractor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.cli.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 //import org.apache.commons.cli..DefaultParser;
 
 @Slf4j
 public class BANExtractorCmd {
     private static final String BAN              = "b";
+    private static final String BAN_FILE         = "ban-file";
     private static final String INPUT_FILE_NAME  = "i";
     private static final String OUTPUT_FILE_NAME = "o";
     private static final String FILE_FORMAT      = "f";
@@ -17,22 +26,88 @@ public class BANExtractorCmd {
     private static final String SSH_USER_NAME    = "u";
     private static final String SSH_PASSWORD     = "P";
     private static final String SSH_KEY_FILE     = "k";
+    private static final String INDEX            = "x";
+    private static final String PARALLELISM      = "j";
+    private static final String NO_PREFILTER     = "no-prefilter";
+    private static final String VERBATIM         = "verbatim";
+    private static final String STAGING          = "staging-threshold";
+    private static final String LEVEL            = "l";
+    private static final String BUFFER_SIZE      = "buffer-size";
+    private static final String READ_AHEAD       = "read-ahead";
+    private static final String SFTP_WINDOW      = "sftp-window";
+    private static final String SFTP_BLOCK_SIZE  = "sftp-block-size";
+    private static final String REMOTE_FILTER    = "remote-filter";
+    private static final String BATCH            = "batch";
+    private static final String REPORT           = "report";
+    private static final String SERVE            = "serve";
+    private static final String CONNECTIONS      = "connections";
+    private static final String SERVE_ROOT       = "serve-root";
+    private static final String CACHE            = "cache";
+    private static final String CACHE_DIR        = "cache-dir";
+    private static final String CACHE_STAT_TTL   = "cache-stat-ttl";
+    private static final String METRICS          = "metrics";
+    private static final String NO_BAN_LIST      = "no-ban-list";
+    private static final String SELECT           = "select";
+    private static final String SPLIT            = "split";
+    private static final String SPLIT_WRITERS    = "split-writers";
+    private static final String OPEN_FILES       = "open-files";
+    private static final String WRITE_BEHIND     = "write-behind";
+    private static final String FIELDS           = "fields";
+    private static final String ROWS             = "rows";
+    private static final String ROW_FIELDS       = "row-fields";
+    private static final String PROJECTION       = "projection";
+    private static final String CHECKPOINT       = "checkpoint";
+    private static final String RETRIES          = "retries";
     private static final String HELP             = "h";
     private static final Options options = new Options();
     private static final CommandLineParser parser = new GnuParser();
     private static CommandLine cmd;
+    private static ResultCache resultCache;
 
     static {
         options.addOption(HELP, false, "Print this message");
-        options.addOption(OptionBuilder.withArgName("BAN").hasArg().withDescription("BAN").create(BAN));
+        options.addOption(OptionBuilder.withArgName("BAN[,BAN...]").hasArgs().withValueSeparator(',').withDescription("BAN or comma separated list of BANs").create(BAN));
+        options.addOption(OptionBuilder.withLongOpt(BAN_FILE).withArgName("fileName").hasArg().withDescription("File with list of BANs, one BAN per line").create());
         options.addOption(OptionBuilder.withArgName("fileName").hasArg().withDescription("Input file name").create(INPUT_FILE_NAME));
         options.addOption(OptionBuilder.withArgName("fileName").hasArg().withDescription("Output file name").create(OUTPUT_FILE_NAME));
-        options.addOption(OptionBuilder.withArgName("[XML|ZIP|GZIP]").hasArg().withDescription("Output file format [XML|ZIP|GZIP]").create(FILE_FORMAT));
+        options.addOption(OptionBuilder.withArgName("[XML|ZIP|GZIP|LZ4]").hasArg().withDescription("Output file format [XML|ZIP|GZIP|LZ4]").create(FILE_FORMAT));
+        options.addOption(OptionBuilder.withArgName("level").hasArg().withDescription("Compression level of output file, 0-9 for ZIP and GZIP, 1-17 for LZ4 high compression, by default the format default").create(LEVEL));
         options.addOption(OptionBuilder.withArgName("serverName").hasArg().withDescription("SSH server name").create(SSH_SERVER_NAME));
         options.addOption(OptionBuilder.withArgName("port").hasArg().withDescription("SSH server port").create(SSH_SERVER_PORT));
         options.addOption(OptionBuilder.withArgName("userName").hasArg().withDescription("User name for SSH server").create(SSH_USER_NAME));
         options.addOption(OptionBuilder.withArgName("password").hasArg().withDescription("Password for password authentication or for private file").create(SSH_PASSWORD));
         options.addOption(OptionBuilder.withArgName("fileName").hasArg().withDescription("Key file for public key authentication to login to SSH server").create(SSH_KEY_FILE));
+        options.addOption(OptionBuilder.withArgName("threads").hasOptionalArg().withDescription("Scan plain XML file in parallel, by default by all available processors").create(PARALLELISM));
+        options.addOption(OptionBuilder.withLongOpt(NO_PREFILTER).withDescription("Parse every document by XML parser, by default documents with other BANs are dropped before parsing").create());
+        options.addOption(OptionBuilder.withLongOpt(VERBATIM).withDescription("Copy exact bytes of found documents instead of writing them by XML parser").create());
+        options.addOption(OptionBuilder.withLongOpt(STAGING).withArgName("bytes").hasArg().withDescription("Document is kept in memory till its BAN is checked, bytes above the threshold are kept in temporary file, 4Mb by default").create());
+        options.addOption(OptionBuilder.withLongOpt(BUFFER_SIZE).withArgName("bytes").hasArg().withDescription("Size of input and output buffers, 256Kb by default").create());
+        options.addOption(OptionBuilder.withLongOpt(READ_AHEAD).withArgName("buffers").hasOptionalArg().withDescription("Read and decompress input on its own thread, buffers is the number of buffers read ahead, 4 by default").create());
+        options.addOption(OptionBuilder.withLongOpt(SFTP_WINDOW).withArgName("bytes").hasOptionalArg().withDescription("Keep several SFTP read requests in flight, window is the number of bytes requested ahead, 4Mb by default").create());
+        options.addOption(OptionBuilder.withLongOpt(SFTP_BLOCK_SIZE).withArgName("bytes").hasArg().withDescription("Size of one SFTP read request for --" + SFTP_WINDOW + ", 32Kb by default").create());
+        options.addOption(OptionBuilder.withLongOpt(REMOTE_FILTER).withDescription("Scan the file on SSH server by gzip and awk, only found documents are transferred").create());
+        options.addOption(OptionBuilder.withLongOpt(BATCH).withArgName("workers").hasOptionalArg().withDescription("Input is a directory or a glob like '/data/extracts/*.gz', files are processed by workers, 4 by default").create());
+        options.addOption(OptionBuilder.withLongOpt(REPORT).withArgName("fileName").hasArg().withDescription("CSV file with files every BAN has been found in for --" + BATCH).create());
+        options.addOption(OptionBuilder.withLongOpt(SERVE).withArgName("port").hasArg().withDescription("Run extraction server on local port, GET /extract?ban=<BAN>[,<BAN>...]&file=<fileName> returns XML or ZIP for several BANs").create());
+        options.addOption(OptionBuilder.withLongOpt(SERVE_ROOT).withArgName("directory[,directory...]").hasArgs().withValueSeparator(',').withDescription("Directories files requested from --" + SERVE + " must be in, by default file must be relative to the current directory or to the home directory on SSH server").create());
+        options.addOption(OptionBuilder.withLongOpt(CONNECTIONS).withArgName("number").hasArg().withDescription("Connections to SSH server kept open by --" + SERVE + ", every one serves up to 4 requests at a time, 2 by default").create());
+        options.addOption(OptionBuilder.withLongOpt(CACHE).withArgName("megabytes").hasOptionalArg().withDescription("Cache found documents LZ4 compressed, the same BANs are written from the cache without reading input, 256Mb by default; in memory with --" + SERVE + ", otherwise it needs --" + CACHE_DIR).create());
+        options.addOption(OptionBuilder.withLongOpt(CACHE_DIR).withArgName("directory").hasArg().withDescription("Keep cached documents in the directory instead of memory, so the cache is reused by next runs").create());
+        options.addOption(OptionBuilder.withLongOpt(CACHE_STAT_TTL).withArgName("seconds").hasArg().withDescription("Trust size and modification time of SSH file for the time, cached documents are written without connecting to the server, 10 seconds by default").create());
+        options.addOption(OptionBuilder.withLongOpt(METRICS).withArgName("seconds").hasOptionalArg().withDescription("Log progress, throughput, ETA and time of read, inflate, parse and write stages every 10 seconds by default, summary is logged as JSON").create());
+        options.addOption(OptionBuilder.withLongOpt(NO_BAN_LIST).withDescription("Don't print BANs of scanned documents to the console, printing costs a lot on large files").create());
+        options.addOption(OptionBuilder.withLongOpt(SELECT).withArgName("selector").hasArg().withDescription("Select documents by element value instead of BAN: path=value[,value...], path in @fileName, path^=prefix, path=from..to").create());
+        options.addOption(OptionBuilder.withLongOpt(SPLIT).withArgName("shards").hasOptionalArg().withDescription("Write every document of input to the file of its BAN in the output directory, or to one of shards by hash of BAN").create());
+        options.addOption(OptionBuilder.withLongOpt(SPLIT_WRITERS).withArgName("threads").hasArg().withDescription("Threads writing and compressing split files, 2 by default").create());
+        options.addOption(OptionBuilder.withLongOpt(OPEN_FILES).withArgName("number").hasArg().withDescription("Split files kept open, the least recently used file is closed and appended later, 256 by default").create());
+        options.addOption(OptionBuilder.withLongOpt(WRITE_BEHIND).withArgName("megabytes").hasArg().withDescription("Split documents queued for writers before scanning waits, 64Mb by default").create());
+        options.addOption(OptionBuilder.withLongOpt(FIELDS).withArgName("path[,path...]").hasArg().withDescription("Write values of elements of documents instead of XML, path is relative to document, name=path names the column").create());
+        options.addOption(OptionBuilder.withLongOpt(ROWS).withArgName("path").hasArg().withDescription("Write a record for every element of the path, like //Calls/Call, with values of --" + ROW_FIELDS + " and --" + FIELDS + ", document without rows is one record with empty row fields").create());
+        options.addOption(OptionBuilder.withLongOpt(ROW_FIELDS).withArgName("path[,path...]").hasArg().withDescription("Values of row elements, path is relative to row element").create());
+        options.addOption(OptionBuilder.withLongOpt(PROJECTION).withArgName("format").hasArg().withDescription("Format of values: CSV (default) or JSONL").create());
+        options.addOption(OptionBuilder.withLongOpt(CHECKPOINT).withArgName("fileName").hasOptionalArg().withDescription("Save restart point of the scan every 10 seconds, broken scan is resumed from it by retry or by the next run").create());
+        options.addOption(OptionBuilder.withLongOpt(RETRIES).withArgName("number").hasArg().withDescription("Times broken scan is resumed from --" + CHECKPOINT + " reconnecting to SSH server, 3 by default").create());
+        options.addOption(OptionBuilder.withArgName("indexFile").hasOptionalArg().withDescription("Use BAN index to read only found documents, index is built if it is absent or out of date").create(INDEX));
     }
 
     private static String getParameter(String parameter) {
@@ -43,23 +118,192 @@ public class BANExtractorCmd {
         return cmd.hasOption(parameter) ? cmd.getOptionValue(parameter) : defultValue;
     }
 
+    private static Set<String> getBANs() throws IOException {
+        Set<String> BANs = new LinkedHashSet<>();
+        if (cmd.hasOption(BAN))
+            for (String s : cmd.getOptionValues(BAN))
+                if (!s.trim().isEmpty())
+                    BANs.add(s.trim());
+
+        if (cmd.hasOption(BAN_FILE))
+            for (String s : Files.readAllLines(Paths.get(cmd.getOptionValue(BAN_FILE))))
+                if (!s.trim().isEmpty() && !s.trim().startsWith("#"))
+                    BANs.add(s.trim());
+
+        return BANs;
+    }
+
+    private static int getParallelism() {
+        if (!cmd.hasOption(PARALLELISM))
+            return 1;
+        return (cmd.getOptionValue(PARALLELISM) == null) ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(cmd.getOptionValue(PARALLELISM));
+    }
+
+    private static int getReadAhead() {
+        if (!cmd.hasOption(READ_AHEAD))
+            return 0;
+        return (cmd.getOptionValue(READ_AHEAD) == null) ? ReadAheadInputStream.DEFAULT_BUFFERS : Integer.parseInt(cmd.getOptionValue(READ_AHEAD));
+    }
+
+    private static int getSftpWindow() {
+        if (!cmd.hasOption(SFTP_WINDOW))
+            return 0;
+        return (cmd.getOptionValue(SFTP_WINDOW) == null) ? Extractor.DEFAULT_SFTP_WINDOW : Integer.parseInt(cmd.getOptionValue(SFTP_WINDOW));
+    }
+
+    private static int getMetricsInterval() {
+        return (cmd.getOptionValue(METRICS) == null) ? 10 : Integer.parseInt(cmd.getOptionValue(METRICS));
+    }
+
+    private static int getWorkers() {
+        return (cmd.getOptionValue(BATCH) == null) ? BatchExtractor.DEFAULT_WORKERS : Integer.parseInt(cmd.getOptionValue(BATCH));
+    }
+
+    private static Projection getProjection() {
+        if (!cmd.hasOption(FIELDS) && !cmd.hasOption(ROWS))
+            return null;
+        return new Projection(Projection.Format.valueOf(getParameter(PROJECTION, "CSV").toUpperCase())).
+                setFields(cmd.getOptionValue(FIELDS)).setRows(cmd.getOptionValue(ROWS), cmd.getOptionValue(ROW_FIELDS));
+    }
+
+    private static Splitter getSplitter() {
+        return new Splitter().setShards((cmd.getOptionValue(SPLIT) == null) ? 0 : Integer.parseInt(cmd.getOptionValue(SPLIT))).
+                setWriters(Integer.parseInt(getParameter(SPLIT_WRITERS, String.valueOf(Splitter.DEFAULT_WRITERS)))).
+                setMaxOpenFiles(Integer.parseInt(getParameter(OPEN_FILES, String.valueOf(Splitter.DEFAULT_MAX_OPEN_FILES)))).
+                setWriteBehind(cmd.hasOption(WRITE_BEHIND) ? Integer.parseInt(cmd.getOptionValue(WRITE_BEHIND)) * 1024 * 1024 : Splitter.DEFAULT_WRITE_BEHIND);
+    }
+
+    /** Checkpoint is kept next to local input file or in the current directory for SSH, like index */
+    private static Checkpoint getCheckpoint() {
+        if (cmd.getOptionValue(CHECKPOINT) != null)
+            return new Checkpoint(Paths.get(cmd.getOptionValue(CHECKPOINT)));
+        String inputFileName = getParameter(INPUT_FILE_NAME);
+        return new Checkpoint(cmd.hasOption(SSH_SERVER_NAME) ? Paths.get(getParameter(SSH_SERVER_NAME) + "_" + Paths.get(inputFileName).getFileName() + ".ckp") :
+                Paths.get(inputFileName + ".ckp"));
+    }
+
+    private static SSHServer getSSHServer() {
+        return new SSHServer(getParameter(SSH_SERVER_NAME), getParameter(SSH_USER_NAME)).
+                setPort(Integer.parseInt(getParameter(SSH_SERVER_PORT, "22"))).setPassword(getParameter(SSH_PASSWORD)).
+                setKeyFile(cmd.hasOption(SSH_KEY_FILE) ? Paths.get(cmd.getOptionValue(SSH_KEY_FILE)) : null);
+    }
+
+    private static ResultCache getResultCache() throws IOException {
+        if (!cmd.hasOption(CACHE) && !cmd.hasOption(CACHE_DIR))
+            return null;
+        ResultCache resultCache = new ResultCache((cmd.getOptionValue(CACHE) == null) ? ResultCache.DEFAULT_MAX_BYTES :
+                Long.parseLong(cmd.getOptionValue(CACHE)) * 1024 * 1024);
+        if (cmd.hasOption(CACHE_STAT_TTL))
+            resultCache.setStatTtl(Long.parseLong(cmd.getOptionValue(CACHE_STAT_TTL)) * 1000);
+        return cmd.hasOption(CACHE_DIR) ? resultCache.setDirectory(Paths.get(cmd.getOptionValue(CACHE_DIR))) : resultCache;
+    }
+
+    private static Extractor configure(Extractor extractor) {
+        return extractor.setSSH(getParameter(SSH_SERVER_NAME), getParameter(SSH_USER_NAME)).
+                setSSHport(Integer.parseInt(getParameter(SSH_SERVER_PORT, "22"))).
+                setPassword(getParameter(SSH_PASSWORD)).setKeyFile(cmd.hasOption(SSH_KEY_FILE) ? Paths.get(cmd.getOptionValue(SSH_KEY_FILE)) : null).
+                setParallelism(getParallelism()).setPrefilter(!cmd.hasOption(NO_PREFILTER)).setVerbatim(cmd.hasOption(VERBATIM)).
+                setStagingThreshold(Integer.parseInt(getParameter(STAGING, String.valueOf(StagingBuffer.DEFAULT_THRESHOLD)))).
+                setCompressionLevel(Integer.parseInt(getParameter(LEVEL, String.valueOf(Codec.DEFAULT_LEVEL)))).
+                setBufferSize(Integer.parseInt(getParameter(BUFFER_SIZE, String.valueOf(Extractor.DEFAULT_BUFFER_SIZE)))).setReadAhead(getReadAhead()).
+                setRemoteFilter(cmd.hasOption(REMOTE_FILTER)).setResultCache(resultCache).setPrintBANs(!cmd.hasOption(NO_BAN_LIST)).
+                setMetricsListener(cmd.hasOption(METRICS) ? Metrics.LOG : null).setMetricsInterval(getMetricsInterval()).
+                setSftpWindow(getSftpWindow()).setSftpBlockSize(Integer.parseInt(getParameter(SFTP_BLOCK_SIZE, String.valueOf(Extractor.DEFAULT_SFTP_BLOCK_SIZE)))).
+                // every file of the batch has its own index
+                setUseIndex(cmd.hasOption(INDEX)).setIndexFile((cmd.getOptionValue(INDEX) == null) || cmd.hasOption(BATCH) || cmd.hasOption(SERVE) ? null : Paths.get(cmd.getOptionValue(INDEX)));
+    }
+
     private static void printUsage() {
         HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp( "java -jar banextractor-1.0.jar -b <BAN> -i <fileName> <OPTIONS>", options);
         System.out.println("\nExamples:");
         System.out.println("  get XML from local or remote filesystem :");
         System.out.println("    java -jar banextractor-1.0.jar -b <BAN> -i <fileName>");
+        System.out.println("  get several BANs in one pass, every BAN is written to its own file in the output directory:");
+        System.out.println("    java -jar banextractor-1.0.jar -b <BAN>,<BAN>,<BAN> -i <fileName> -o <directory>");
+        System.out.println("    java -jar banextractor-1.0.jar --ban-file <fileName> -i <fileName> -o <directory>");
+        System.out.println("  get XML from big plain XML file scanning it by 16 threads:");
+        System.out.println("    java -jar banextractor-1.0.jar -b <BAN> -i <fileName> -j 16");
+        System.out.println("  get gzipped XML decompressing it on separate thread, output is LZ4 compressed:");
+        System.out.println("    java -jar banextractor-1.0.jar -b <BAN> -i <fileName> --read-ahead -f LZ4");
+        System.out.println("  find BANs in all cycle files of the directory on SSH server by 8 workers, report tells which file held which BAN:");
+        System.out.println("    java -jar banextractor-1.0.jar -b <BAN>,<BAN> -i '/data/extracts/*.gz' --batch 8 -o <directory> --report <fileName> -s <SSH_SERVER> -u <SOME_USER> -P <PASSWORD>");
+        System.out.println("  run extraction server on port 8080 keeping connections to SSH server and loaded indexes, then get XML by HTTP:");
+        System.out.println("    java -jar banextractor-1.0.jar --serve 8080 -x -s <SSH_SERVER> -u <SOME_USER> -P <PASSWORD>");
+        System.out.println("    curl 'http://localhost:8080/extract?ban=<BAN>&file=<fileName>' > <BAN>.xml");
+        System.out.println("  get XML of the same BANs again and again during investigation, found documents are kept in the cache directory:");
+        System.out.println("    java -jar banextractor-1.0.jar -b <BAN> -i <fileName> --cache-dir ~/.banextractor/cache");
+        System.out.println("  get XML from 10Gb file watching progress and where time goes every 30 seconds:");
+        System.out.println("    java -jar banextractor-1.0.jar -b <BAN> -i <fileName> --metrics 30 --no-ban-list");
+        System.out.println("  get XML of documents by other element than TITAN_BAN, documents of statement dates of November are written to the output directory:");
+        System.out.println("    java -jar banextractor-1.0.jar --select Metadata/WIRELESS_BAN=<WIRELESS_BAN> -i <fileName>");
+        System.out.println("    java -jar banextractor-1.0.jar --select 'Metadata/STMT_DATE=2017-11-01..2017-11-30' -i <fileName> -o <directory>");
+        System.out.println("  split the whole cycle file to files of BANs, or to 64 gzipped extracts by hash of BAN, in one pass:");
+        System.out.println("    java -jar banextractor-1.0.jar --split -i <fileName> -o <directory>");
+        System.out.println("    java -jar banextractor-1.0.jar --split 64 -i <fileName> -o <directory> -f GZIP --split-writers 4");
+        System.out.println("  get statement date of every BAN as CSV, or calls of some BANs as gzipped JSON Lines, without writing XML:");
+        System.out.println("    java -jar banextractor-1.0.jar --fields Metadata/TITAN_BAN,Metadata/STMT_DATE -i <fileName> -o <fileName>.csv");
+        System.out.println("    java -jar banextractor-1.0.jar -b <BAN>,<BAN> --fields BAN=Metadata/TITAN_BAN --rows //Calls/Call --row-fields Date,PhoneNumber,AirtimeCharges --projection JSONL -f GZIP -i <fileName>");
+        System.out.println("  get XML using index, the first run builds index <fileName>.idx, next runs read found documents only:");
+        System.out.println("    java -jar banextractor-1.0.jar -b <BAN> -i <fileName> -x");
+        System.out.println("  get XML from 50Gb file on distant SSH server, dropped connection is opened again and the scan resumes from the last checkpoint:");
+        System.out.println("    java -jar banextractor-1.0.jar -b <BAN>,<BAN> -i <fileName> -o <directory> -s <SSH_SERVER> -u <SOME_USER> -P <PASSWORD> --checkpoint --retries 5");
         System.out.println("  get XML from SSH server with public authentication (vagrant):");
         System.out.println("    java -jar banextractor-1.0.jar -b <BAN> -i /data/britebill/input-test/extracts/MOBILITY/0202/<SOME_NAME>.gz -s localhost -p 2222 -u ec2-user -k att/att-build/src/main/resources/vagrant/files/ec2-user_id_rsa");
         System.out.println("  get XML from SSH server with password authentication (att):");
         System.out.println("    java -jar banextractor-1.0.jar -b <BAN> -i <fileName> -s <SSH_SERVER> -u <SOME_USER> -P <PASSWORD>");
+        System.out.println("  get XML from SSH server transferring only found documents, the file is scanned on the server:");
+        System.out.println("    java -jar banextractor-1.0.jar -b <BAN> -i <fileName> -s <SSH_SERVER> -u <SOME_USER> -P <PASSWORD> --remote-filter");
+        System.out.println("  get XML from distant SSH server keeping 16Mb of read requests in flight:");
+        System.out.println("    java -jar banextractor-1.0.jar -b <BAN> -i <fileName> -s <SSH_SERVER> -u <SOME_USER> -P <PASSWORD> --sftp-window 16777216");
         System.out.println("\nNotes:");
-        System.out.println("  Input file can be either XML or gzipped XML, extractor will uncompress gzipped file \"on-the-fly\"");
+        System.out.println("  Input file can be either XML or gzipped, zipped or LZ4 compressed XML, extractor will uncompress it \"on-the-fly\"");
         System.out.println("  Output file can be empty, then file will create in the input directory");
         System.out.println("  If output file is directory, then file name will be constructed");
-        System.out.println("  File format specifies format of output file, if ZIP or GZIP specified, compression will be done on-the-fly");
-        System.out.println("  Temporary files are not created");
-        System.out.println("  No size limits for XML");
+        System.out.println("  If several BANs are specified, output is a directory, file names are constructed for every BAN");
+        System.out.println("  Parsing stops as soon as all BANs are found");
+        System.out.println("  Verbatim output is byte-identical to the document in input file, it has no XML declaration");
+        System.out.println("  Parallel scan (-j) works for plain local XML only, gzipped file is parsed sequentially");
+        System.out.println("  File format specifies format of output file, if ZIP, GZIP or LZ4 specified, compression will be done on-the-fly");
+        System.out.println("  Temporary files are created only for documents bigger than staging threshold, index file is created only if -x is specified");
+        System.out.println("  Batch input must be quoted, otherwise glob is expanded by shell; workers on SSH server share one connection, they shouldn't exceed MaxSessions of the server (10 by default)");
+        System.out.println("  Extraction server listens on loopback only, options given at start (-x, --verbatim, --read-ahead...) apply to every request, verbatim and index can be changed by request parameters; file outside of --" + SERVE_ROOT + " directories is rejected with 403");
+        System.out.println("  Cached document is used only if input file has the same size and modification time, stat of SSH file is trusted for 10 seconds (--" + CACHE_STAT_TTL + "), by next runs too if it is kept in --" + CACHE_DIR);
+        System.out.println("  Remote filter needs gzip and awk with regular expression record separator (gawk, mawk, busybox) on SSH server");
+        System.out.println("  Index is kept next to local input file or in the current directory for SSH, it is rebuilt when input file is changed");
+        System.out.println("  Selector path is relative to document element, // selects element at any depth; every matched document is written named by its TITAN_BAN; Metadata/TITAN_BAN=<BAN>,<BAN> is the same as -b, the first document of every BAN is written");
+        System.out.println("  Index, parallel scan, verbatim, prefilter, remote filter and result cache work for TITAN_BAN only, selector of other element parses every document");
+        System.out.println("  Split copies documents verbatim, the next document of the same BAN gets suffix _2; shard has the prolog and the root element of input, reopened shard of GZIP or LZ4 gets one more member or frame");
+        System.out.println("  Projection is one file for all documents, record of row has only document fields found before the row; index, parallel scan and remote filter work if BANs are given");
+        System.out.println("  Checkpoint is <fileName>.ckp next to local input file or <SSH_SERVER>_<fileName>.ckp in the current directory, it is deleted when the scan completes; it works for plain and gzipped input and for BANs only");
+        System.out.println("  Scan resumed from checkpoint doesn't extract BANs found before it again, single-member gzip is inflated from the start up to the restart point");
+        System.out.println("  No size limits for XML, memory usage doesn't depend on document size");
+    }
+
+    /** Server runs till the process is stopped, BAN, input and output options are taken from requests */
+    private static void serve() throws IOException {
+        ExtractionServer server = new ExtractionServer(Integer.parseInt(cmd.getOptionValue(SERVE)),
+                (BANs, fileName) -> configure(Extractor.of(BANs, fileName, ".", "XML")));
+        if (cmd.hasOption(SERVE_ROOT)) {
+            List<Path> roots = new ArrayList<>();
+            for (String root : cmd.getOptionValues(SERVE_ROOT))
+                roots.add(cmd.hasOption(SSH_SERVER_NAME) ? Paths.get(root) : Paths.get(root).toAbsolutePath());
+            server.setRoots(roots);
+        }
+        if (cmd.hasOption(SSH_SERVER_NAME))
+            server.setSSHClientPool(new SSHClientPool(getSSHServer(),
+                    Integer.parseInt(getParameter(CONNECTIONS, String.valueOf(SSHClientPool.DEFAULT_CONNECTIONS))), SSHClientPool.DEFAULT_SESSIONS));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+    }
+
+    private static void run(Extractor extractor) throws Exception {
+        if (cmd.hasOption(CHECKPOINT))
+            extractor.setCheckpoint(getCheckpoint()).setRetries(Integer.parseInt(getParameter(RETRIES, String.valueOf(Extractor.DEFAULT_RETRIES))));
+        if (cmd.hasOption(SSH_SERVER_NAME))
+            extractor.runSSH();
+        else
+            extractor.runLocal();
     }
 
     public static void main(String[] args) throws Exception {
@@ -71,27 +315,87 @@ public class BANExtractorCmd {
                 return;
             }
 
-            if (!cmd.hasOption(BAN) || !cmd.hasOption(INPUT_FILE_NAME)) {
+            if (cmd.hasOption(CACHE) && !cmd.hasOption(CACHE_DIR) && !cmd.hasOption(SERVE)) {
+                log.error("Cache in memory is lost when the run ends, it is kept by --" + SERVE + " only, give --" + CACHE_DIR + " to keep documents for next runs");
+                return;
+            }
+
+            resultCache = getResultCache();
+            if (cmd.hasOption(SERVE)) {
+                serve();
+                return;
+            }
+
+            Projection projection = getProjection();
+            if ((!cmd.hasOption(BAN) && !cmd.hasOption(BAN_FILE) && !cmd.hasOption(SELECT) && !cmd.hasOption(SPLIT) && (projection == null)) ||
+                    !cmd.hasOption(INPUT_FILE_NAME)) {
                 log.error("BAN and input file name are mandatory");
                 printUsage();
                 return;
             }
 
             String fileFormat = getParameter(FILE_FORMAT, "XML").toUpperCase();
-            if (!fileFormat.equals("XML") && !fileFormat.equals("ZIP") && !fileFormat.equals("GZIP")) {
-                log.error("Output file format must be one o the following: XML ZIP GZIP");
+            if (!fileFormat.equals("XML") && !fileFormat.equals("ZIP") && !fileFormat.equals("GZIP") && !fileFormat.equals("LZ4")) {
+                log.error("Output file format must be one o the following: XML ZIP GZIP LZ4");
                 return;
             }
 
-            Extractor extractor = Extractor.of(getParameter(BAN), getParameter(INPUT_FILE_NAME), getParameter(OUTPUT_FILE_NAME), fileFormat).
-                    setSSH(getParameter(SSH_SERVER_NAME), getParameter(SSH_USER_NAME)).
-                    setSSHport(Integer.parseInt(getParameter(SSH_SERVER_PORT, "22"))).
-                    setPassword(getParameter(SSH_PASSWORD)).setKeyFile(Paths.get(getParameter(SSH_KEY_FILE)));
+            if (cmd.hasOption(SPLIT)) {
+                if (cmd.hasOption(BAN) || cmd.hasOption(BAN_FILE) || cmd.hasOption(SELECT) || cmd.hasOption(BATCH) || (projection != null)) {
+                    log.error("Split can't be used with BANs, selector, projection or batch");
+                    return;
+                }
+                run(configure(Extractor.of(Collections.<String>emptySet(), getParameter(INPUT_FILE_NAME), getParameter(OUTPUT_FILE_NAME, "."), fileFormat)).
+                        setSplitter(getSplitter()));
+                return;
+            }
+
+            if (projection != null) {
+                if (cmd.hasOption(SELECT) || cmd.hasOption(BATCH)) {
+                    log.error("Projection can't be used with selector, split or batch");
+                    return;
+                }
+                Set<String> BANs = getBANs();
+                run(configure(Extractor.of(BANs, getParameter(INPUT_FILE_NAME), getParameter(OUTPUT_FILE_NAME), fileFormat)).
+                        setProjection(projection));
+                return;
+            }
+
+            if (cmd.hasOption(SELECT)) {
+                if (cmd.hasOption(BAN) || cmd.hasOption(BAN_FILE) || cmd.hasOption(BATCH)) {
+                    log.error("Selector can't be used with BANs or batch");
+                    return;
+                }
+                Selector selector;
+                try {
+                    selector = Selector.parse(cmd.getOptionValue(SELECT));
+                } catch (IllegalArgumentException e) {
+                    log.error(e.getMessage());
+                    return;
+                }
+                run(configure(Extractor.of(selector, getParameter(INPUT_FILE_NAME), getParameter(OUTPUT_FILE_NAME), fileFormat)));
+                return;
+            }
+
+            Set<String> BANs = getBANs();
+            if (BANs.isEmpty()) {
+                log.error("BAN list is empty");
+                return;
+            }
+
+            if (cmd.hasOption(BATCH)) {
+                String outputDirectory = getParameter(OUTPUT_FILE_NAME, ".");
+                Files.createDirectories(Paths.get(outputDirectory));
+                BatchExtractor batchExtractor = new BatchExtractor(BANs, getParameter(INPUT_FILE_NAME),
+                        fileName -> configure(Extractor.of(BANs, fileName, outputDirectory, fileFormat))).
+                        setWorkers(getWorkers()).setReportFile(cmd.hasOption(REPORT) ? Paths.get(cmd.getOptionValue(REPORT)) : null);
+                if (cmd.hasOption(SSH_SERVER_NAME))
+                    batchExtractor.setSSHServer(getSSHServer());
+                batchExtractor.run();
+                return;
+            }
 
-            if (cmd.hasOption(SSH_SERVER_NAME))
-                extractor.runSSH();
-            else
-                extractor.runLocal();
+            run(configure(Extractor.of(BANs, getParameter(INPUT_FILE_NAME), getParameter(OUTPUT_FILE_NAME), fileFormat)));
         } catch (ParseException e) {
             log.error("Invalid commandline parameters", e);
         }
@@ -0,0 +1,191 @@
+package com.amdocs.banextractor;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Sidecar index of bill extract: offset and length of every att:MixedBillService document keyed by TITAN_BAN.
+ * For gzipped file index keeps also offsets of the gzip member the document starts in, decompression restarts from
+ * this member and skips the rest of uncompressed bytes without parsing them. For plain XML member offsets are equal
+ * to the document offset. Index is valid while size and modification time of the source file are the same.
+ */
+@Slf4j
+public class BANIndex {
+    private static final String MAGIC = "BANIDX";
+    private static final int VERSION = 1;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value
+    public static class Entry {
+        String BAN;
+        long offset;
+        long length;
+        long memberCompressedOffset;
+        long memberOffset;
+    }
+
+    private final long sourceSize;
+    private final long sourceModified;
+    private final boolean compressed;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private BANIndex(long sourceSize, long sourceModified, boolean compressed) {
+        this.sourceSize = sourceSize;
+        this.sourceModified = sourceModified;
+        this.compressed = compressed;
+    }
+
+    public boolean isValid(long size, long modified) {
+        return (sourceSize == size) && (sourceModified == modified);
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Entry get(String BAN) {
+        return entries.get(BAN);
+    }
+
+    private void add(Entry entry) {
+        // the first document wins like in sequential extraction
+        entries.putIfAbsent(entry.getBAN(), entry);
+    }
+
+    /** Scans whole input stream, it can be either XML or gzipped XML */
+    public static BANIndex build(InputStream inputStream, long size, long modified) throws IOException {
+        long started = System.currentTimeMillis();
+        try (BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream, BUFFER_SIZE)) {
+            Codec codec = Codec.detect(bufferedInputStream, Arrays.asList(StandardCodec.values()));
+            if ((codec != StandardCodec.NONE) && (codec != StandardCodec.GZIP))
+                throw new IOException("Index can be built for XML and gzipped XML only, file is compressed by " + codec);
+            boolean compressed = (codec == StandardCodec.GZIP);
+            BANIndex index = new BANIndex(size, modified, compressed);
+            GZIPMemberInputStream gzipInputStream = compressed ? new GZIPMemberInputStream(bufferedInputStream, BUFFER_SIZE) : null;
+            InputStream source = compressed ? gzipInputStream : bufferedInputStream;
+
+            Builder builder = new Builder(index, gzipInputStream);
+            DocumentScanner scanner = new DocumentScanner(builder);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = source.read(buffer)) != -1) {
+                builder.nextChunk();
+                scanner.scan(buffer, 0, length);
+            }
+
+            log.info("Index has been built in {} ms, documents={}, BANs={}", System.currentTimeMillis() - started, builder.documents, index.size());
+            return index;
+        }
+    }
+
+    /** Returns null if there is no index file or it can't be read */
+    public static BANIndex load(Path path) {
+        if (!Files.isRegularFile(path))
+            return null;
+
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if (!inputStream.readUTF().equals(MAGIC) || (inputStream.readInt() != VERSION)) {
+                log.warn("Index file {} has unknown format", path);
+                return null;
+            }
+            BANIndex index = new BANIndex(inputStream.readLong(), inputStream.readLong(), inputStream.readBoolean());
+            for (int i = inputStream.readInt(); i > 0; i--)
+                index.add(new Entry(inputStream.readUTF(), inputStream.readLong(), inputStream.readLong(), inputStream.readLong(), inputStream.readLong()));
+            log.info("Index {} has been loaded, BANs={}", path, index.size());
+            return index;
+        } catch (IOException e) {
+            log.warn("Index file {} can't be read: {}", path, e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    public void save(Path path) throws IOException {
+        // unique temporary file, index of the same file can be saved by concurrent extractions
+        Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE))) {
+            outputStream.writeUTF(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeLong(sourceSize);
+            outputStream.writeLong(sourceModified);
+            outputStream.writeBoolean(compressed);
+            outputStream.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                outputStream.writeUTF(entry.getBAN());
+                outputStream.writeLong(entry.getOffset());
+                outputStream.writeLong(entry.getLength());
+                outputStream.writeLong(entry.getMemberCompressedOffset());
+                outputStream.writeLong(entry.getMemberOffset());
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        log.info("Index has been saved to {}", path);
+    }
+
+    private static class Builder implements DocumentScanner.Listener {
+        private final BANIndex index;
+        private final GZIPMemberInputStream gzipInputStream;
+        private long memberCompressedOffset;
+        private long memberOffset;
+        private long previousMemberCompressedOffset;
+        private long previousMemberOffset;
+        private long documentOffset;
+        private long documentMemberCompressedOffset;
+        private long documentMemberOffset;
+        private String BAN;
+        private int documents = 0;
+
+        Builder(BANIndex index, GZIPMemberInputStream gzipInputStream) {
+            this.index = index;
+            this.gzipInputStream = gzipInputStream;
+        }
+
+        void nextChunk() {
+            if ((gzipInputStream != null) && (gzipInputStream.getMemberOffset() != memberOffset)) {
+                previousMemberCompressedOffset = memberCompressedOffset;
+                previousMemberOffset = memberOffset;
+                memberCompressedOffset = gzipInputStream.getMemberCompressedOffset();
+                memberOffset = gzipInputStream.getMemberOffset();
+            }
+        }
+
+        @Override
+        public void documentStart(long offset) {
+            documentOffset = offset;
+            BAN = null;
+            if (gzipInputStream == null) {
+                documentMemberCompressedOffset = offset;
+                documentMemberOffset = offset;
+            } else if (offset >= memberOffset) {
+                documentMemberCompressedOffset = memberCompressedOffset;
+                documentMemberOffset = memberOffset;
+            } else {
+                // start tag began in the previous member
+                documentMemberCompressedOffset = previousMemberCompressedOffset;
+                documentMemberOffset = previousMemberOffset;
+            }
+        }
+
+        @Override
+        public void titanBAN(String BAN) {
+            if (this.BAN == null)
+                this.BAN = BAN;
+        }
+
+        @Override
+        public void documentEnd(long offset) {
+            documents++;
+            if (BAN != null)
+                index.add(new Entry(BAN, documentOffset, offset - documentOffset, documentMemberCompressedOffset, documentMemberOffset));
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.amdocs.banextractor;
+
+import com.sshtools.sftp.SftpClient;
+import com.sshtools.sftp.SftpFile;
+import com.sshtools.ssh.SshClient;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Extracts BANs from many files, input is a directory or a glob in the file name like /data/extracts/*.gz, local or on
+ * SSH server. Files are processed by a bounded pool of workers, every worker has its own extractor. All workers on
+ * SSH server share one authenticated client, every extractor opens its own SFTP channel, so the number of workers
+ * must not exceed sessions allowed by the server (MaxSessions of OpenSSH is 10 by default). Report of the files every
+ * BAN has been found in is logged and optionally written to CSV file.
+ */
+@Slf4j
+public class BatchExtractor {
+    public static final int DEFAULT_WORKERS = 4;
+
+    private final Collection<String> BANs;
+    private final String input;
+    private final Function<String, Extractor> extractorFactory;
+    private SSHServer sshServer;
+    private int workers = DEFAULT_WORKERS;
+    private Path reportFile;
+    private final Map<String, List<String>> report = new LinkedHashMap<>();
+    private final List<String> failedFiles = new ArrayList<>();
+
+    /**
+     * @param extractorFactory creates configured extractor for the file, all files are extracted to the same
+     *                         directory, extractor should be created in multi-BAN or output directory mode
+     */
+    public BatchExtractor(Collection<String> BANs, String input, Function<String, Extractor> extractorFactory) {
+        this.BANs = BANs;
+        this.input = input;
+        this.extractorFactory = extractorFactory;
+        for (String BAN : BANs)
+            report.put(BAN, new ArrayList<>());
+    }
+
+    /** Files are on SSH server */
+    public BatchExtractor setSSHServer(SSHServer sshServer) {
+        this.sshServer = sshServer;
+        return this;
+    }
+
+    public BatchExtractor setWorkers(int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    /** CSV file with BAN and file name, file name is empty if BAN hasn't been found */
+    public BatchExtractor setReportFile(Path reportFile) {
+        this.reportFile = reportFile;
+        return this;
+    }
+
+    /** Files every BAN has been found in, files are in the order of input list */
+    public Map<String, List<String>> getReport() {
+        return Collections.unmodifiableMap(report);
+    }
+
+    public List<String> getFailedFiles() {
+        return Collections.unmodifiableList(failedFiles);
+    }
+
+    public void run() throws Exception {
+        if (sshServer == null) {
+            run(listLocalFiles(), null);
+            return;
+        }
+
+        SshClient sshClient = null;
+        log.info("Parsing XML files on SSH server. Server name={}", sshServer.getServerName());
+        try (AutoCloseable sshClientCloser = (sshClient = sshServer.connect())::exit) {
+            run(listRemoteFiles(sshClient), sshClient);
+        }
+    }
+
+    private void run(List<String> files, SshClient sshClient) throws Exception {
+        log.info("{} files will be processed by {} workers", files.size(), workers);
+        long started = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Set<String>>> futures = new ArrayList<>();
+            for (String file : files)
+                futures.add(executor.submit(() -> extract(file, sshClient)));
+
+            for (int i = 0; i < files.size(); i++) {
+                Set<String> found = futures.get(i).get();
+                if (found == null)
+                    failedFiles.add(files.get(i));
+                else
+                    for (String BAN : found)
+                        report.get(BAN).add(files.get(i));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        log.info("{} files have been processed in {} ms", files.size(), System.currentTimeMillis() - started);
+        report();
+    }
+
+    /** Returns found BANs or null if file can't be processed */
+    private Set<String> extract(String file, SshClient sshClient) {
+        Extractor extractor = extractorFactory.apply(file).setPrintBANs(false).setLogNotFound(false);
+        try {
+            if (sshClient == null)
+                extractor.runLocal();
+            else
+                extractor.runSSH(sshClient);
+            return extractor.getFoundBANs();
+        } catch (Exception e) {
+            log.error("File {} can't be processed", file, e);
+            return null;
+        }
+    }
+
+    private void report() throws IOException {
+        for (Map.Entry<String, List<String>> entry : report.entrySet())
+            if (entry.getValue().isEmpty())
+                log.error("BAN {} has not found in any file", entry.getKey());
+            else
+                log.info("BAN {} has been found in {}", entry.getKey(), String.join(", ", entry.getValue()));
+        for (String file : failedFiles)
+            log.error("File {} has failed", file);
+
+        if (reportFile != null) {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8))) {
+                writer.println("BAN,file");
+                for (Map.Entry<String, List<String>> entry : report.entrySet())
+                    if (entry.getValue().isEmpty())
+                        writer.println(entry.getKey() + ",");
+                    else
+                        for (String file : entry.getValue())
+                            writer.println(entry.getKey() + "," + file);
+            }
+            log.info("Report has been written to {}", reportFile);
+        }
+    }
+
+    /** Directory and glob of file names, glob is null if input is a directory */
+    private static String[] split(String input, boolean directory) {
+        if (directory)
+            return new String[]{input, null};
+        int i = input.lastIndexOf('/');
+        return new String[]{(i == -1) ? "." : (i == 0) ? "/" : input.substring(0, i), input.substring(i + 1)};
+    }
+
+    private static boolean accept(String fileName, PathMatcher matcher) {
+        // index files are kept next to input files
+        return !fileName.endsWith(".idx") && ((matcher == null) || matcher.matches(Paths.get(fileName)));
+    }
+
+    private static PathMatcher getMatcher(String glob) {
+        return (glob == null) ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    }
+
+    private List<String> listLocalFiles() throws IOException {
+        String[] split = split(input, Files.isDirectory(Paths.get(input)));
+        PathMatcher matcher = getMatcher(split[1]);
+        List<String> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(split[0]))) {
+            for (Path path : stream)
+                if (Files.isRegularFile(path) && accept(path.getFileName().toString(), matcher))
+                    files.add(path.toString());
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private List<String> listRemoteFiles(SshClient sshClient) throws Exception {
+        SftpClient sftp = new SftpClient(sshClient);
+        try (AutoCloseable sftpClientCloser = sftp::exit) {
+            boolean directory;
+            try {
+                directory = sftp.stat(input).isDirectory();
+            } catch (Exception e) {
+                directory = false;
+            }
+            String[] split = split(input, directory);
+            PathMatcher matcher = getMatcher(split[1]);
+            List<String> files = new ArrayList<>();
+            for (SftpFile file : sftp.ls(split[0]))
+                if (file.isFile() && accept(file.getFilename(), matcher))
+                    files.add(split[0].endsWith("/") ? split[0] + file.getFilename() : split[0] + "/" + file.getFilename());
+            Collections.sort(files);
+            return files;
+        }
+    }
+}
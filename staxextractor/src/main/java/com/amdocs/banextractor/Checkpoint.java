@@ -0,0 +1,250 @@
+package com.amdocs.banextractor;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Restart point of sequential scan, it is saved periodically to the checkpoint file, so scan of big file broken by
+ * dropped connection or stale NFS handle is resumed instead of started from the beginning. Restart point is the end
+ * of a document: offset of the gzip member decompression restarts from (the same as {@link BANIndex} does) and the
+ * uncompressed offset. Single-member gzip restarts decompression from the start of the file, but parses and writes
+ * nothing till the restart point.
+ * <p>
+ * Checkpoint moves only over documents which are done: dropped by the prefilter or completely parsed and written.
+ * Documents are found by the prefilter below the parser, the parser reads ahead, so found document isn't done yet. Every document
+ * is either passed to the parser or dropped, documents passed and not parsed yet hold the checkpoint back. BANs which
+ * haven't been found are saved with the restart point, documents of found BANs aren't extracted again.
+ */
+@Slf4j
+public class Checkpoint {
+    public static final int DEFAULT_INTERVAL = 10;
+    private static final String MAGIC = "BANCKP";
+    private static final int VERSION = 1;
+
+    @Value
+    public static class Position {
+        long memberCompressedOffset;
+        long memberOffset;
+        long offset;
+    }
+
+    @Value
+    public static class State {
+        boolean compressed;
+        Position position;
+        long documents;
+        Set<String> pendingBANs;
+    }
+
+    private final Path path;
+    private int interval = DEFAULT_INTERVAL;
+    private long sourceSize;
+    private long sourceModified;
+    private boolean compressed;
+    private long offset;
+    private List<String> BANs;
+    private Set<String> pendingBANs;
+    private long documents;
+    // restart points of documents scanned but not committed, document number of the first one is ends.first
+    private final ArrayDeque<Position> ends = new ArrayDeque<>();
+    private long scanned;
+    private long decided;
+    private final ArrayDeque<Long> passed = new ArrayDeque<>();
+    private long committed;
+    private Position position;
+    private final List<long[]> members = new ArrayList<>();
+    private long lastSave;
+    private boolean saved = false;
+
+    public Checkpoint(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /** Seconds between saves of the checkpoint file */
+    public Checkpoint setInterval(int interval) {
+        this.interval = interval;
+        return this;
+    }
+
+    /** Returns saved state if the file is the same and BANs are the same, null otherwise */
+    State load(long size, long modified, Collection<String> BANs) {
+        if (!Files.isRegularFile(path))
+            return null;
+
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BANIndex.BUFFER_SIZE))) {
+            if (!inputStream.readUTF().equals(MAGIC) || (inputStream.readInt() != VERSION)) {
+                log.warn("Checkpoint file {} has unknown format", path);
+                return null;
+            }
+            if ((inputStream.readLong() != size) || (inputStream.readLong() != modified)) {
+                log.warn("Checkpoint {} is of another version of input file, scan starts from the beginning", path);
+                return null;
+            }
+            boolean compressed = inputStream.readBoolean();
+            Position position = new Position(inputStream.readLong(), inputStream.readLong(), inputStream.readLong());
+            long documents = inputStream.readLong();
+            List<String> savedBANs = readBANs(inputStream);
+            Set<String> pendingBANs = new LinkedHashSet<>(readBANs(inputStream));
+            if (!new HashSet<>(savedBANs).equals(new HashSet<>(BANs))) {
+                log.warn("Checkpoint {} is of other BANs, scan starts from the beginning", path);
+                return null;
+            }
+            return new State(compressed, position, documents, pendingBANs);
+        } catch (IOException e) {
+            log.warn("Checkpoint file {} can't be read: {}", path, e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private static List<String> readBANs(DataInputStream inputStream) throws IOException {
+        List<String> BANs = new ArrayList<>();
+        for (int i = inputStream.readInt(); i > 0; i--)
+            BANs.add(inputStream.readUTF());
+        return BANs;
+    }
+
+    /**
+     * Starts tracking of one scan
+     *
+     * @param state saved state the scan resumes from, null if it starts from the beginning
+     */
+    void start(long size, long modified, Collection<String> BANs, State state) {
+        this.sourceSize = size;
+        this.sourceModified = modified;
+        this.BANs = new ArrayList<>(BANs);
+        this.pendingBANs = new LinkedHashSet<>(BANs);
+        this.position = (state == null) ? null : state.getPosition();
+        this.documents = (state == null) ? 0 : state.getDocuments();
+        ends.clear();
+        passed.clear();
+        scanned = 0;
+        decided = 0;
+        committed = 0;
+        lastSave = System.currentTimeMillis();
+        synchronized (members) {
+            members.clear();
+        }
+    }
+
+    /** Start of gzip member, it can be called by read ahead thread */
+    void memberStart(long compressedOffset, long offset) {
+        synchronized (members) {
+            members.add(new long[]{compressedOffset, offset});
+        }
+    }
+
+    /**
+     * Starts tracking of documents of uncompressed XML, documents are found by the prefilter
+     *
+     * @param offset      offset of the first byte seen by the prefilter
+     * @param pendingBANs BANs not found yet, the set is changed by the scan and saved as it is
+     */
+    void track(long offset, boolean compressed, Set<String> pendingBANs) {
+        this.offset = offset;
+        this.compressed = compressed;
+        this.pendingBANs = pendingBANs;
+    }
+
+    /** Document ends at offset relative to the first byte seen by the prefilter */
+    void documentEnd(long offset) {
+        offset += this.offset;
+        scanned++;
+        if (!compressed)
+            ends.add(new Position(offset, offset, offset));
+        else
+            synchronized (members) {
+                // the last member starting before the end, read ahead may have started next members
+                int i = members.size() - 1;
+                while ((i > 0) && (members.get(i)[1] > offset))
+                    i--;
+                long[] member = members.get(i);
+                members.subList(0, i).clear();
+                ends.add(new Position(member[0], member[1], offset));
+            }
+        commit();
+    }
+
+    /** Document is passed to the parser, it is done when it is parsed */
+    void documentPassed() {
+        passed.add(++decided);
+    }
+
+    /** Document is dropped by the prefilter, it is done */
+    void documentDropped() {
+        decided++;
+        commit();
+    }
+
+    /** The oldest passed document has been parsed and its output is written */
+    void documentParsed() {
+        passed.poll();
+        commit();
+    }
+
+    private void commit() {
+        long done = Math.min(passed.isEmpty() ? decided : passed.peek() - 1, scanned);
+        if (done <= committed)
+            return;
+        while (committed < done) {
+            position = ends.poll();
+            committed++;
+        }
+        if (System.currentTimeMillis() - lastSave >= interval * 1000L)
+            try {
+                save();
+            } catch (IOException e) {
+                log.warn("Checkpoint can't be saved to {}: {}", path, e.getLocalizedMessage());
+            }
+    }
+
+    /** Saves the last restart point, nothing is saved if no document is done yet */
+    void save() throws IOException {
+        lastSave = System.currentTimeMillis();
+        if (position == null)
+            return;
+        Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), BANIndex.BUFFER_SIZE))) {
+                outputStream.writeUTF(MAGIC);
+                outputStream.writeInt(VERSION);
+                outputStream.writeLong(sourceSize);
+                outputStream.writeLong(sourceModified);
+                outputStream.writeBoolean(compressed);
+                outputStream.writeLong(position.getMemberCompressedOffset());
+                outputStream.writeLong(position.getMemberOffset());
+                outputStream.writeLong(position.getOffset());
+                outputStream.writeLong(documents + committed);
+                writeBANs(outputStream, BANs);
+                writeBANs(outputStream, pendingBANs);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        saved = true;
+        log.debug("Checkpoint has been saved at offset {}, {} BANs pending", position.getOffset(), pendingBANs.size());
+    }
+
+    private static void writeBANs(DataOutputStream outputStream, Collection<String> BANs) throws IOException {
+        outputStream.writeInt(BANs.size());
+        for (String BAN : BANs)
+            outputStream.writeUTF(BAN);
+    }
+
+    /** Scan has been completed, checkpoint isn't needed any more */
+    void delete() throws IOException {
+        if (Files.deleteIfExists(path) || saved)
+            log.info("Scan is complete, checkpoint {} has been deleted", path);
+        saved = false;
+    }
+}
@@ -0,0 +1,48 @@
+package com.amdocs.banextractor;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+/**
+ * Compression format of input and output files. Input format is recognized by magic bytes, output format is chosen
+ * by {@link Extractor.FileFormat}. Standard formats are in {@link StandardCodec}, other ones can be added to extractor.
+ */
+public interface Codec {
+    int HEADER_SIZE = 4;
+    int DEFAULT_LEVEL = -1;
+
+    /** Extension of the output file name, empty for plain XML */
+    String getExtension();
+
+    /** Returns true if header is magic bytes of this format, header has no more than HEADER_SIZE bytes */
+    boolean matches(byte[] header, int length);
+
+    InputStream decompress(InputStream inputStream, int bufferSize) throws IOException;
+
+    /**
+     * @param entryName name of the entry for archive formats
+     * @param level     compression level, its range depends on the format, DEFAULT_LEVEL is the format default
+     */
+    OutputStream compress(OutputStream outputStream, String entryName, int level, int bufferSize) throws IOException;
+
+    /** Returns format of the input stream or {@link StandardCodec#NONE} for plain XML, stream position isn't changed */
+    static Codec detect(BufferedInputStream inputStream, Collection<? extends Codec> codecs) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        inputStream.mark(HEADER_SIZE);
+        int length = 0;
+        int n;
+        while ((length < HEADER_SIZE) && ((n = inputStream.read(header, length, HEADER_SIZE - length)) != -1))
+            length += n;
+        inputStream.reset();
+        if (length < 3)
+            throw new IOException("file too small");
+
+        for (Codec codec : codecs)
+            if (codec.matches(header, length))
+                return codec;
+        return StandardCodec.NONE;
+    }
+}
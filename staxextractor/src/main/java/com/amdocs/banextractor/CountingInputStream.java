@@ -0,0 +1,46 @@
+package com.amdocs.banextractor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Counts bytes read and skipped from the underlying stream */
+public class CountingInputStream extends FilterInputStream {
+    private volatile long count = 0;
+
+    public CountingInputStream(InputStream inputStream) {
+        super(inputStream);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1)
+            count++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int length = in.read(b, off, len);
+        if (length > 0)
+            count += length;
+        return length;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+package com.amdocs.banextractor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Cuts input fed by chunks at offsets found by {@link DocumentScanner}, bytes up to the cut go to the current
+ * destination of the owner. Document start tag can begin in one chunk and be recognized in a later one, even many
+ * chunks later if reads are short, so bytes of the tag which can be document start tag are held back at the end of
+ * chunk and carried to the next chunks. Held bytes go to the destination chosen when the tag is recognized.
+ */
+class DocumentCutter {
+    interface Destination {
+        void write(byte[] b, int off, int len) throws IOException;
+    }
+
+    private final DocumentScanner scanner;
+    private final Destination destination;
+    // bytes from written till the start of the current chunk
+    private byte[] carry = new byte[64];
+    private int carryLength = 0;
+    private byte[] chunk;
+    private long chunkOffset = 0;
+    private long written = 0;
+
+    DocumentCutter(DocumentScanner scanner, Destination destination) {
+        this.scanner = scanner;
+        this.destination = destination;
+    }
+
+    /**
+     * Scans next chunk, listener of the scanner cuts it. Bytes up to the held tag go to the destination unless the
+     * scanner has been stopped, chunk isn't used after return.
+     */
+    void process(byte[] chunk, int length) throws IOException {
+        this.chunk = chunk;
+        try {
+            scanner.scan(chunk, 0, length);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        long end = chunkOffset + length;
+        if (!scanner.isStopped()) {
+            long held = scanner.getPendingTagOffset();
+            cut(((held == -1) || (held > end)) ? end : held);
+            hold(length);
+        }
+        this.chunk = null;
+        chunkOffset = end;
+    }
+
+    /** Writes bytes till offset to the destination, offset must be inside the chunk being scanned */
+    void cut(long offset) throws IOException {
+        if (offset <= written)
+            return;
+        if (written < chunkOffset) {
+            int from = carryLength - (int) (chunkOffset - written);
+            int to = carryLength - (int) (chunkOffset - Math.min(offset, chunkOffset));
+            destination.write(carry, from, to - from);
+            written += to - from;
+        }
+        if (offset > written) {
+            destination.write(chunk, (int) (written - chunkOffset), (int) (offset - written));
+            written = offset;
+        }
+    }
+
+    /** Keeps bytes not written yet till the next chunk */
+    private void hold(int length) {
+        long end = chunkOffset + length;
+        int carried = (int) (end - written);
+        int fromCarry = (int) Math.max(0, chunkOffset - written);
+        byte[] next = (carried <= carry.length) ? carry : new byte[Math.max(carried, carry.length * 2)];
+        System.arraycopy(carry, carryLength - fromCarry, next, 0, fromCarry);
+        System.arraycopy(chunk, length - (carried - fromCarry), next, fromCarry, carried - fromCarry);
+        carry = next;
+        carryLength = carried;
+    }
+
+    /** Offset of the end of input scanned so far */
+    long getOffset() {
+        return chunkOffset;
+    }
+}
@@ -0,0 +1,156 @@
+package com.amdocs.banextractor;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Finds att:MixedBillService documents with requested TITAN_BAN on the byte level and copies their exact bytes to the
+ * sink, all other documents are dropped. The first TITAN_BAN of the document decides, only the first document of
+ * every BAN is copied like sequential extraction does. Bytes of the document till TITAN_BAN are kept in staging
+ * buffer until it is known whether the document is needed.
+ */
+public class DocumentFilter implements Closeable {
+    public interface Sink {
+        /** Document with requested BAN has been found, returns stream for its bytes */
+        OutputStream documentStart(String BAN) throws IOException;
+
+        /** All bytes of the document have been written */
+        void documentEnd(String BAN) throws IOException;
+    }
+
+    private enum Destination {NONE, STAGING, OUT}
+
+    private final Set<String> pendingBANs;
+    private final Sink sink;
+    private final Consumer<String> skippedBAN;
+    private final DocumentScanner scanner = new DocumentScanner(new Listener());
+    private final DocumentCutter cutter = new DocumentCutter(scanner, this::write);
+    private final StagingBuffer staging;
+    private Destination destination = Destination.NONE;
+    private OutputStream outputStream;
+    private String BAN;
+    private boolean BANChecked;
+    private boolean finished = false;
+    private Checkpoint checkpoint;
+
+    /**
+     * @param skippedBAN is called for TITAN_BAN of every dropped document, can be null
+     */
+    public DocumentFilter(Collection<String> BANs, Sink sink, Consumer<String> skippedBAN, int stagingThreshold) {
+        this.pendingBANs = new LinkedHashSet<>(BANs);
+        this.sink = sink;
+        this.skippedBAN = skippedBAN;
+        this.staging = new StagingBuffer(stagingThreshold);
+    }
+
+    @Override
+    public void close() throws IOException {
+        staging.close();
+    }
+
+    /** Checkpoint is told about the end of every document and whether it is passed or dropped */
+    public DocumentFilter setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /** All BANs have been found, the rest of input isn't needed */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public Set<String> getPendingBANs() {
+        return pendingBANs;
+    }
+
+    /** Copies requested documents of the whole stream to the sink */
+    public void copy(InputStream inputStream, int bufferSize) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        int length;
+        while (!finished && ((length = inputStream.read(buffer)) != -1))
+            process(buffer, length);
+    }
+
+    /** Processes next chunk of input, chunk isn't used after return */
+    public void process(byte[] chunk, int length) throws IOException {
+        cutter.process(chunk, length);
+    }
+
+    /** Copies bytes cut from input to current destination */
+    private void write(byte[] b, int off, int len) throws IOException {
+        if (destination == Destination.STAGING)
+            staging.write(b, off, len);
+        else if (destination == Destination.OUT)
+            outputStream.write(b, off, len);
+    }
+
+    private class Listener implements DocumentScanner.Listener {
+        @Override
+        public void documentStart(long offset) {
+            try {
+                cutter.cut(offset);
+                destination = Destination.STAGING;
+                BANChecked = false;
+                staging.reset();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void titanBAN(String BAN) {
+            if (BANChecked)
+                return;
+            BANChecked = true;
+
+            try {
+                cutter.cut(scanner.getPosition());
+                if (pendingBANs.remove(BAN)) {
+                    if (checkpoint != null)
+                        checkpoint.documentPassed();
+                    DocumentFilter.this.BAN = BAN;
+                    outputStream = sink.documentStart(BAN);
+                    staging.writeTo(outputStream);
+                    destination = Destination.OUT;
+                } else {
+                    if (skippedBAN != null)
+                        skippedBAN.accept(BAN);
+                    if (checkpoint != null)
+                        checkpoint.documentDropped();
+                    destination = Destination.NONE;
+                }
+                staging.reset();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void documentEnd(long offset) {
+            try {
+                cutter.cut(offset);
+                if (checkpoint != null) {
+                    checkpoint.documentEnd(offset);
+                    if (destination == Destination.STAGING)
+                        // document without TITAN_BAN
+                        checkpoint.documentDropped();
+                }
+                if (destination == Destination.OUT) {
+                    sink.documentEnd(BAN);
+                    outputStream = null;
+                    if (pendingBANs.isEmpty()) {
+                        finished = true;
+                        scanner.stop();
+                    }
+                }
+                destination = Destination.NONE;
+                staging.reset();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
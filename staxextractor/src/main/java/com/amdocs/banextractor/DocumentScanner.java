@@ -0,0 +1,264 @@
+package com.amdocs.banextractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte level scanner of bill extract. It finds boundaries of att:MixedBillService documents and values of TITAN_BAN
+ * without building XML events, so it is much cheaper than StAX and doesn't allocate anything per element.
+ * Scanner keeps its state between calls, input can be fed by chunks of any size.
+ */
+public class DocumentScanner {
+    public interface Listener {
+        /** Document start tag found, offset points to its '<' */
+        void documentStart(long offset);
+
+        /** Value of TITAN_BAN element of the current document */
+        void titanBAN(String BAN);
+
+        /** Document end tag found, offset points right after its '>' */
+        void documentEnd(long offset);
+    }
+
+    private static final byte[] NAME_START = "att:MixedBillService".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NAME_END = "/att:MixedBillService".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NAME_TITAN_BAN = "TITAN_BAN".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_NAME_LENGTH = 32;
+    private static final int MAX_VALUE_LENGTH = 64;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int TEXT = 0;
+    private static final int TAG_NAME = 1;
+    private static final int TAG = 2;
+    private static final int QUOTE = 3;
+    private static final int SKIP = 4;
+
+    private static final int TERM_COMMENT = ('-' << 16) | ('-' << 8) | '>';
+    private static final int TERM_CDATA = (']' << 16) | (']' << 8) | '>';
+    private static final int TERM_PI = ('?' << 8) | '>';
+
+    private final Listener listener;
+    private final byte[] name = new byte[MAX_NAME_LENGTH];
+    private final byte[] value = new byte[MAX_VALUE_LENGTH];
+    private byte[] chunk;
+    private int state = TEXT;
+    private int nameLength;
+    private int valueLength;
+    private boolean capture = false;
+    private boolean inDocument = false;
+    private boolean lastSlash = false;
+    private byte quote;
+    private int window;
+    private int terminator;
+    private int terminatorMask;
+    private long position = 0;
+    private long tagOffset;
+    private volatile boolean stopped = false;
+
+    public DocumentScanner(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Absolute offset of the next byte to be scanned */
+    public long getPosition() {
+        return position;
+    }
+
+    /** Sets absolute offset of the next byte, used when scanning starts in the middle of the file */
+    public DocumentScanner setPosition(long position) {
+        this.position = position;
+        return this;
+    }
+
+    public boolean isInDocument() {
+        return inDocument;
+    }
+
+    /**
+     * Offset of '<' of the tag which name is being scanned outside document and can still be document start tag, -1
+     * if there is no such tag
+     */
+    public long getPendingTagOffset() {
+        return ((state == TAG_NAME) && !inDocument && (nameLength <= NAME_START.length)) ? tagOffset : -1;
+    }
+
+    /** Can be called from listener, scanning stops right after the current byte */
+    public void stop() {
+        stopped = true;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /** Scans whole stream till the end or till {@link #stop()} */
+    public void scan(InputStream inputStream, int bufferSize) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        int length;
+        while (!stopped && ((length = inputStream.read(buffer)) != -1))
+            scan(buffer, 0, length);
+    }
+
+    /** Scans bytes from position till limit of the buffer, buffer position is moved to the first byte not scanned */
+    public void scan(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            int scanned = scan(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.position() + scanned);
+            return;
+        }
+
+        // direct and mapped buffers are copied by chunks, bulk get is much faster than get() per byte
+        if (chunk == null)
+            chunk = new byte[CHUNK_SIZE];
+        while (buffer.hasRemaining() && !stopped) {
+            int length = Math.min(buffer.remaining(), CHUNK_SIZE);
+            int position = buffer.position();
+            buffer.get(chunk, 0, length);
+            buffer.position(position + scan(chunk, 0, length));
+        }
+    }
+
+    /** Returns number of bytes scanned, it is less than length only if scanning has been stopped */
+    public int scan(byte[] buffer, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        while ((i < end) && !stopped) {
+            if ((state == TEXT) && !capture) {
+                // fast path, nothing is interesting till the next tag
+                int from = i;
+                while ((i < end) && (buffer[i] != '<'))
+                    i++;
+                position += i - from;
+                if (i == end)
+                    break;
+            }
+            next(buffer[i++]);
+            position++;
+        }
+        return i - offset;
+    }
+
+    private void next(byte b) {
+        switch (state) {
+            case TEXT:
+                if (b == '<') {
+                    if (capture)
+                        titanBAN();
+                    state = TAG_NAME;
+                    nameLength = 0;
+                    tagOffset = position;
+                } else if (capture && (valueLength < MAX_VALUE_LENGTH))
+                    value[valueLength++] = b;
+                break;
+            case TAG_NAME:
+                if ((b == '>') || ((b == '/') && (nameLength > 0)) || isWhitespace(b)) {
+                    nameEnd();
+                    lastSlash = (b == '/');
+                    if (b == '>')
+                        tagEnd();
+                    else
+                        state = TAG;
+                } else {
+                    if (nameLength < MAX_NAME_LENGTH)
+                        name[nameLength] = b;
+                    nameLength++;
+                    if (name[0] == '!') {
+                        if (isName("!--"))
+                            skip(TERM_COMMENT, 0xFFFFFF);
+                        else if (isName("![CDATA["))
+                            skip(TERM_CDATA, 0xFFFFFF);
+                    } else if (name[0] == '?')
+                        skip(TERM_PI, 0xFFFF);
+                }
+                break;
+            case TAG:
+                if (b == '>')
+                    tagEnd();
+                else if ((b == '"') || (b == '\'')) {
+                    quote = b;
+                    state = QUOTE;
+                } else if (!isWhitespace(b))
+                    lastSlash = (b == '/');
+                break;
+            case QUOTE:
+                if (b == quote)
+                    state = TAG;
+                break;
+            case SKIP:
+                window = (window << 8) | (b & 0xFF);
+                if ((window & terminatorMask) == terminator)
+                    state = TEXT;
+                break;
+        }
+    }
+
+    private void skip(int terminator, int terminatorMask) {
+        this.terminator = terminator;
+        this.terminatorMask = terminatorMask;
+        window = 0;
+        state = SKIP;
+    }
+
+    private void nameEnd() {
+        if (!inDocument && isName(NAME_START)) {
+            inDocument = true;
+            listener.documentStart(tagOffset);
+        }
+    }
+
+    private void tagEnd() {
+        state = TEXT;
+        if (lastSlash) {
+            if (inDocument && isName(NAME_START)) {
+                inDocument = false;
+                listener.documentEnd(position + 1);
+            }
+            return;
+        }
+
+        if (inDocument) {
+            if (isName(NAME_END)) {
+                inDocument = false;
+                listener.documentEnd(position + 1);
+            } else if (isName(NAME_TITAN_BAN)) {
+                capture = true;
+                valueLength = 0;
+            }
+        }
+    }
+
+    private void titanBAN() {
+        capture = false;
+        int from = 0;
+        int to = valueLength;
+        while ((from < to) && isWhitespace(value[from]))
+            from++;
+        while ((to > from) && isWhitespace(value[to - 1]))
+            to--;
+        listener.titanBAN(new String(value, from, to - from, StandardCharsets.UTF_8));
+    }
+
+    private boolean isName(byte[] expected) {
+        if (nameLength != expected.length)
+            return false;
+        for (int i = 0; i < nameLength; i++)
+            if (name[i] != expected[i])
+                return false;
+        return true;
+    }
+
+    private boolean isName(String expected) {
+        if (nameLength != expected.length())
+            return false;
+        for (int i = 0; i < nameLength; i++)
+            if (name[i] != expected.charAt(i))
+                return false;
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return (b == ' ') || (b == '\n') || (b == '\r') || (b == '\t');
+    }
+}
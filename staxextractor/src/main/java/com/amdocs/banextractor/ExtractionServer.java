@@ -0,0 +1,260 @@
+package com.amdocs.banextractor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Long-running extraction service, JIT stays warm, SSH connections and loaded indexes are reused between requests.
+ * Server listens on loopback only, request is
+ * <pre>GET /extract?ban=BAN[,BAN...]&amp;file=fileName[&amp;verbatim=true|false][&amp;index=true|false][&amp;format=xml|zip]</pre>
+ * Document of one BAN is streamed back as XML, several BANs are streamed as ZIP with one entry per BAN. Response
+ * starts with the first found document, 404 is returned if no BAN has been found. Requests are served concurrently by
+ * a bounded pool of workers, every request has its own extractor.
+ * <p>
+ * File must be in one of the root directories, relative file name is resolved against them. Without roots, file name
+ * must be relative to the current directory or to the home directory on SSH server and can't go up by "..". Symbolic
+ * links aren't followed by the check.
+ */
+@Slf4j
+public class ExtractionServer implements Closeable {
+    public static final int DEFAULT_WORKERS = 8;
+
+    public interface ExtractorFactory {
+        /** Returns configured extractor, output isn't used, documents are written to the response */
+        Extractor create(Collection<String> BANs, String fileName);
+    }
+
+    private final int port;
+    private final ExtractorFactory extractorFactory;
+    private int workers = DEFAULT_WORKERS;
+    private SSHClientPool sshClientPool;
+    private final List<Path> roots = new ArrayList<>();
+    private final ConcurrentMap<Path, CompletableFuture<BANIndex>> indexCache = new ConcurrentHashMap<>();
+    private HttpServer httpServer;
+    private ExecutorService executor;
+
+    public ExtractionServer(int port, ExtractorFactory extractorFactory) {
+        this.port = port;
+        this.extractorFactory = extractorFactory;
+    }
+
+    public ExtractionServer setWorkers(int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    /** Directories requested files must be in */
+    public ExtractionServer setRoots(Collection<Path> roots) {
+        this.roots.clear();
+        for (Path root : roots)
+            this.roots.add(root.normalize());
+        return this;
+    }
+
+    /** Files are on SSH server, the pool is closed with the server */
+    public ExtractionServer setSSHClientPool(SSHClientPool sshClientPool) {
+        this.sshClientPool = sshClientPool;
+        return this;
+    }
+
+    public void start() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/extract", this::extract);
+        executor = Executors.newFixedThreadPool(workers);
+        httpServer.setExecutor(executor);
+        httpServer.start();
+        log.info("Extraction server is listening on {} with {} workers", httpServer.getAddress(), workers);
+    }
+
+    /** Port the server listens on, the port is chosen by the system if the server has been created with port 0 */
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            executor.shutdownNow();
+            httpServer = null;
+        }
+        if (sshClientPool != null)
+            sshClientPool.close();
+    }
+
+    private void extract(HttpExchange exchange) throws IOException {
+        Response response = null;
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, "Only GET is supported");
+                return;
+            }
+
+            Map<String, String> parameters = getParameters(exchange.getRequestURI().getRawQuery());
+            Set<String> BANs = new LinkedHashSet<>();
+            for (String BAN : parameters.getOrDefault("ban", "").split(","))
+                if (!BAN.trim().isEmpty())
+                    BANs.add(BAN.trim());
+            String fileName = parameters.get("file");
+            if (BANs.isEmpty() || (fileName == null) || fileName.isEmpty()) {
+                send(exchange, 400, "Parameters ban and file are mandatory");
+                return;
+            }
+
+            String path = resolve(fileName);
+            if (path == null) {
+                send(exchange, 403, "File " + fileName + " is outside of served directories");
+                return;
+            }
+            fileName = path;
+
+            log.info("Request for {} in {}", BANs, fileName);
+            Extractor extractor = extractorFactory.create(BANs, fileName).setPrintBANs(false).setIndexCache(indexCache);
+            if (parameters.containsKey("verbatim"))
+                extractor.setVerbatim(Boolean.parseBoolean(parameters.get("verbatim")));
+            if (parameters.containsKey("index"))
+                extractor.setUseIndex(Boolean.parseBoolean(parameters.get("index")));
+            response = new Response(exchange, (BANs.size() > 1) || "zip".equalsIgnoreCase(parameters.get("format")));
+            extractor.setOutput(response);
+
+            if (sshClientPool != null)
+                sshClientPool.run(extractor::runSSH);
+            else
+                extractor.runLocal();
+
+            if (!response.finish())
+                send(exchange, 404, "BANs " + BANs + " haven't been found in " + fileName);
+        } catch (Exception e) {
+            log.error("Request {} has failed", exchange.getRequestURI(), e);
+            // response is broken if the first document has been sent, client gets incomplete body
+            if ((response == null) || !response.isStarted())
+                send(exchange, (e instanceof FileNotFoundException) || (e instanceof NoSuchFileException) ? 404 : 500,
+                        String.valueOf(e.getLocalizedMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Returns normalized file name if the file is in one of the roots, null otherwise */
+    String resolve(String fileName) {
+        Path path;
+        try {
+            path = Paths.get(fileName).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (roots.isEmpty())
+            return (path.isAbsolute() || path.startsWith("..")) ? null : path.toString();
+        for (Path root : roots) {
+            Path resolved = root.resolve(path).normalize();
+            if (resolved.startsWith(root))
+                return resolved.toString();
+        }
+        return null;
+    }
+
+    private static Map<String, String> getParameters(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null)
+            for (String parameter : query.split("&")) {
+                int i = parameter.indexOf('=');
+                String name = URLDecoder.decode((i == -1) ? parameter : parameter.substring(0, i), "UTF-8");
+                String value = (i == -1) ? "" : URLDecoder.decode(parameter.substring(i + 1), "UTF-8");
+                // repeated ban parameter is the same as comma separated list
+                parameters.merge(name, value, (a, b) -> a + "," + b);
+            }
+        return parameters;
+    }
+
+    private static void send(HttpExchange exchange, int code, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    /** Response body is chunked, headers are sent when the first document is found */
+    private static class Response implements Extractor.Output {
+        private final HttpExchange exchange;
+        private final boolean zip;
+        private OutputStream body;
+        private ZipOutputStream zipOutputStream;
+
+        Response(HttpExchange exchange, boolean zip) {
+            this.exchange = exchange;
+            this.zip = zip;
+        }
+
+        boolean isStarted() {
+            return body != null;
+        }
+
+        @Override
+        public synchronized OutputStream open(String BAN) throws IOException {
+            if (body == null) {
+                exchange.getResponseHeaders().set("Content-Type", zip ? "application/zip" : "application/xml");
+                exchange.sendResponseHeaders(200, 0);
+                body = new BufferedOutputStream(exchange.getResponseBody(), Extractor.DEFAULT_BUFFER_SIZE);
+                if (zip)
+                    zipOutputStream = new ZipOutputStream(body);
+            }
+
+            if (!zip)
+                return new FilterOutputStream(body) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        out.flush();
+                    }
+                };
+
+            zipOutputStream.putNextEntry(new ZipEntry(BAN + ".xml"));
+            return new FilterOutputStream(zipOutputStream) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    zipOutputStream.closeEntry();
+                }
+            };
+        }
+
+        /** Completes the body, returns false if nothing has been sent */
+        synchronized boolean finish() throws IOException {
+            if (body == null)
+                return false;
+            if (zipOutputStream != null)
+                zipOutputStream.finish();
+            body.close();
+            return true;
+        }
+    }
+}
@@ -1,11 +1,10 @@
 package com.amdocs.banextractor;
 
-import com.sshtools.net.SocketTransport;
-import com.sshtools.publickey.SshPrivateKeyFile;
-import com.sshtools.publickey.SshPrivateKeyFileFactory;
+import com.sshtools.sftp.FileTransferProgress;
 import com.sshtools.sftp.SftpClient;
+import com.sshtools.sftp.SftpFileAttributes;
+import com.sshtools.sftp.SftpStatusException;
 import com.sshtools.ssh.*;
-import com.sshtools.ssh.components.SshKeyPair;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
@@ -15,32 +14,90 @@ import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.*;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Iterator;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class Extractor {
-    public enum FileFormat {XML, ZIP, GZIP}
+    public enum FileFormat {
+        XML(StandardCodec.NONE), ZIP(StandardCodec.ZIP), GZIP(StandardCodec.GZIP), LZ4(StandardCodec.LZ4);
 
-    private static final byte[] GZIP_MAGIC_DIGITS = {0x1F, (byte) 0x8B, 0x08};
+        private final Codec codec;
+
+        FileFormat(Codec codec) {
+            this.codec = codec;
+        }
+
+        public Codec getCodec() {
+            return codec;
+        }
+    }
+
+    /** Destination of found documents, by default every BAN is written to its own file */
+    public interface Output {
+        /** Returns stream for the document of BAN, it is closed when the document is written */
+        OutputStream open(String BAN) throws IOException;
+    }
+
+    private interface Source {
+        InputStream open(long position) throws IOException;
+    }
+
+    /** State of one parsing run, extractor runs one after another for every indexed document */
+    private static class Context {
+        private final Set<String> pendingBANs;
+        private int depth = 0;
+        private StagingBuffer staging;
+        private Writer stagingWriter;
+        private boolean doAdd = false;
+        private boolean toFile = false;
+        private boolean checkTITAN_BAN = false;
+        private int depthTITAN_BAN = 0;
+        private Writer writer;
+        private OutputStream outputStream;
+        private String BAN;
+        private String documentBAN;
+
+        Context(Collection<String> BANs) {
+            this.pendingBANs = new LinkedHashSet<>(BANs);
+        }
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    public static final int DEFAULT_SFTP_WINDOW = 4 * 1024 * 1024;
+    public static final int DEFAULT_SFTP_BLOCK_SIZE = 32 * 1024;
+    public static final int DEFAULT_RETRIES = 3;
+    private static final int RETRY_DELAY = 5;
     private static final String TAG_TITAN_BAN = "TITAN_BAN";
     private static final String TAG_START = "att:MixedBillService";
-    private int depth = 0;
-    private StringBuilder stringBuilder = new StringBuilder();
-    private boolean doAdd = false;
-    private boolean toFile = false;
-    private boolean checkTITAN_BAN = false;
-    private int depthTITAN_BAN = 0;
-    private Writer writer;
-    private String BAN;
+    // factory isn't changed after creation, so readers can be created by concurrent extractions
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    static {
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+    }
+    private Set<String> BANs;
+    private Selector selector;
+    private Splitter splitter;
+    private Projection projection;
+    private String projectionFileName;
+    private Writer projectionWriter;
+    // BANs which have to be read from input, BANs found in result cache are excluded
+    private Set<String> wantedBANs;
+    private Set<String> foundBANs = new LinkedHashSet<>();
     private String inputFileName;
     private String outputFileName;
     private FileFormat fileFormat = FileFormat.XML;
@@ -49,34 +106,79 @@ public class Extractor {
     private String userName;
     private String password;
     private Path keyFile;
+    private boolean useIndex = false;
+    private Path indexFile;
+    private int parallelism = 1;
+    private boolean prefilter = true;
+    private boolean verbatim = false;
+    private int stagingThreshold = StagingBuffer.DEFAULT_THRESHOLD;
+    private List<Codec> codecs = new ArrayList<>(Arrays.asList(StandardCodec.GZIP, StandardCodec.ZIP, StandardCodec.LZ4));
+    private int compressionLevel = Codec.DEFAULT_LEVEL;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private int readAhead = 0;
+    private int sftpWindow = 0;
+    private int sftpBlockSize = DEFAULT_SFTP_BLOCK_SIZE;
+    private boolean remoteFilter = false;
+    private boolean printBANs = true;
+    private boolean logNotFound = true;
+    private Output output;
+    private ConcurrentMap<Path, CompletableFuture<BANIndex>> indexCache;
+    private ResultCache resultCache;
+    private final Map<String, String> cacheKeys = new HashMap<>();
+    private final Map<String, ResultCache.Capture> captures = new HashMap<>();
+    private Checkpoint checkpoint;
+    private int retries = DEFAULT_RETRIES;
+    // checkpoint of the current sequential scan and the state it resumes from
+    private Checkpoint scanCheckpoint;
+    private Checkpoint.State resumeState;
+    // XML declaration of input put before the restart point, so the resumed scan decodes input by its encoding
+    private byte[] resumeDeclaration;
+    private Metrics metrics;
+    private Metrics.Listener metricsListener;
+    private int metricsInterval = 0;
     private boolean needLF = false;
     private int terminalWidth = jline.TerminalFactory.get().getWidth();
     private int lineBAN = 0;
 
     public Extractor(String BAN, String inputFileName, String outputFileName, String fileFormat) {
-        this.BAN = BAN;
+        this(Collections.singleton(BAN), inputFileName, outputFileName, fileFormat);
+    }
+
+    public Extractor(Collection<String> BANs, String inputFileName, String outputFileName, String fileFormat) {
+        this.BANs = new LinkedHashSet<>(BANs);
+        this.wantedBANs = this.BANs;
         this.inputFileName = inputFileName;
+        this.projectionFileName = outputFileName;
+        this.metrics = new Metrics(inputFileName, 0);
         this.fileFormat = FileFormat.valueOf(fileFormat);
 
+        if (this.BANs.size() != 1) {
+            // several BANs or selector, every found document goes to its own file in the output directory
+            if ((outputFileName == null) || (outputFileName.trim().equals(""))) {
+                Path parent = Paths.get(inputFileName).toAbsolutePath().getParent();
+                this.outputFileName = (parent == null) ? "." : parent.toString();
+                log.info("Output directory is empty, files will be created in {}", this.outputFileName);
+            } else
+                this.outputFileName = outputFileName;
+            return;
+        }
+
+        String BAN = this.BANs.iterator().next();
         if ((outputFileName == null) || (outputFileName.trim().equals(""))) {
-            this.outputFileName = getFileName4Archive(inputFileName) + getExt();
+            this.outputFileName = getFileName4Archive(inputFileName, BAN) + getExt();
             log.info("Output file name is empty, constructed new one is {}", this.outputFileName);
         } else if (new File(outputFileName).isDirectory()) {
-            this.outputFileName = getFileName4Archive(inputFileName) + getExt();
+            this.outputFileName = Paths.get(outputFileName, getFileName4Archive(Paths.get(inputFileName).getFileName().toString(), BAN) + getExt()).toString();
             log.info("Output file is directory, constructed file name is {}", this.outputFileName);
         } else
             this.outputFileName = outputFileName;
     }
 
     private String getExt() {
-        if (fileFormat.equals(FileFormat.ZIP))
-            return ".zip";
-        if (fileFormat.equals(FileFormat.GZIP))
-            return ".gz";
-        return "";
+        return fileFormat.getCodec().getExtension();
     }
 
-    private String getFileName4Archive(String fileName) {
+    private static String getFileName4Archive(String fileName, String BAN) {
         final String ext4archive = "." + BAN + ".xml";
         int i = fileName.lastIndexOf('.');
         if (i > -1) {
@@ -88,10 +190,52 @@ public class Extractor {
         return fileName + ext4archive;
     }
 
+    /** Documents are selected by selector, selector of TITAN_BAN values is the same as the list of BANs */
+    public Extractor(Selector selector, String inputFileName, String outputFileName, String fileFormat) {
+        this(selector.isTitanBAN() ? selector.getValues() : Collections.<String>emptySet(), inputFileName, outputFileName, fileFormat);
+        if (!selector.isTitanBAN())
+            this.selector = selector;
+    }
+
     public static Extractor of(String BAN, String inputFileName, String outputFileName, String fileFormat) {
         return new Extractor(BAN, inputFileName, outputFileName, fileFormat);
     }
 
+    public static Extractor of(Collection<String> BANs, String inputFileName, String outputFileName, String fileFormat) {
+        return new Extractor(BANs, inputFileName, outputFileName, fileFormat);
+    }
+
+    public static Extractor of(Selector selector, String inputFileName, String outputFileName, String fileFormat) {
+        return new Extractor(selector, inputFileName, outputFileName, fileFormat);
+    }
+
+    public Set<String> getFoundBANs() {
+        return Collections.unmodifiableSet(foundBANs);
+    }
+
+    /**
+     * Writes every document of input to the file of its BAN or to shards in the output directory instead of
+     * extraction of BANs
+     */
+    public Extractor setSplitter(Splitter splitter) {
+        this.splitter = splitter;
+        return this;
+    }
+
+    /**
+     * Writes selected values of documents to one CSV or JSON Lines file instead of documents, values of all documents
+     * are written if BAN list is empty. Output file name is the file name or directory given to the constructor.
+     */
+    public Extractor setProjection(Projection projection) {
+        this.projection = projection;
+        return this;
+    }
+
+    /** Metrics of the current or the last run */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     public Extractor setSSH(String serverName, String userName) {
         this.serverName = serverName;
         this.userName = userName;
@@ -113,109 +257,884 @@ public class Extractor {
         return this;
     }
 
-    private void checkSSHAuthentication(SshClient sshClient, SshAuthentication sshAuthentication) throws SshException {
-        int returnCode = sshClient.authenticate(sshAuthentication);
+    public Extractor setUseIndex(boolean useIndex) {
+        this.useIndex = useIndex;
+        return this;
+    }
 
-        if (returnCode == SshAuthentication.COMPLETE)
-            log.info("Authentication completed");
-        else {
-            String returnString = "unknown error";
-            switch (returnCode) {
-                case SshAuthentication.FAILED: returnString = "The authentication failed"; break;
-                case SshAuthentication.CANCELLED: returnString = "The authentication was cancelled by the user"; break;
-                case SshAuthentication.FURTHER_AUTHENTICATION_REQUIRED: returnString = "The authentication succeeded but further authentication is required"; break;
-                case SshAuthentication.PUBLIC_KEY_ACCEPTABLE: returnString = "The public key provided is acceptable for authentication"; break;
+    /** Number of threads to scan plain XML file, 1 means sequential parsing */
+    public Extractor setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /** Drop not requested documents on the byte level before XML parsing, it is on by default */
+    public Extractor setPrefilter(boolean prefilter) {
+        this.prefilter = prefilter;
+        return this;
+    }
+
+    /**
+     * Copy exact bytes of found documents from input instead of writing them event by event, output is byte-identical
+     * to the document in the input file
+     */
+    public Extractor setVerbatim(boolean verbatim) {
+        this.verbatim = verbatim;
+        return this;
+    }
+
+    /**
+     * Document is kept in memory till its TITAN_BAN is checked, bytes above the threshold are staged in temporary file
+     */
+    public Extractor setStagingThreshold(int stagingThreshold) {
+        this.stagingThreshold = stagingThreshold;
+        return this;
+    }
+
+    /** Index file, if it isn't set index is kept next to local input file or in the current directory for SSH */
+    public Extractor setIndexFile(Path indexFile) {
+        this.indexFile = indexFile;
+        return this;
+    }
+
+    /** Adds format of input file, it is recognized by magic bytes like standard ones */
+    public Extractor addCodec(Codec codec) {
+        codecs.add(codec);
+        return this;
+    }
+
+    /** Compression level of output file, its range depends on file format, by default it is the format default */
+    public Extractor setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    /** Size of input and output buffers */
+    public Extractor setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Read and decompress input on its own thread, buffers is the number of buffers read ahead of the parser, 0 means
+     * that input is read by the parser thread
+     */
+    public Extractor setReadAhead(int buffers) {
+        this.readAhead = buffers;
+        return this;
+    }
+
+    /**
+     * Keep several SFTP read requests in flight, window is the number of bytes requested ahead, 0 means that file is
+     * read by blocking requests one by one
+     */
+    public Extractor setSftpWindow(int sftpWindow) {
+        this.sftpWindow = sftpWindow;
+        return this;
+    }
+
+    /** Size of one SFTP read request */
+    public Extractor setSftpBlockSize(int sftpBlockSize) {
+        this.sftpBlockSize = sftpBlockSize;
+        return this;
+    }
+
+    /** Scan the file on SSH server by shell command, only found documents are transferred, see {@link RemoteFilter} */
+    public Extractor setRemoteFilter(boolean remoteFilter) {
+        this.remoteFilter = remoteFilter;
+        return this;
+    }
+
+    /** Listener gets metrics every interval while extraction runs and when it completes */
+    public Extractor setMetricsListener(Metrics.Listener metricsListener) {
+        this.metricsListener = metricsListener;
+        return this;
+    }
+
+    /** Seconds between progress calls of metrics listener, 0 - the listener gets only completed metrics */
+    public Extractor setMetricsInterval(int metricsInterval) {
+        this.metricsInterval = metricsInterval;
+        return this;
+    }
+
+    /** Print TITAN_BAN of every skipped document to the console, it is on by default */
+    public Extractor setPrintBANs(boolean printBANs) {
+        this.printBANs = printBANs;
+        return this;
+    }
+
+    /** Log not found BANs as errors, it is on by default, batch extraction expects BANs to be absent in most files */
+    public Extractor setLogNotFound(boolean logNotFound) {
+        this.logNotFound = logNotFound;
+        return this;
+    }
+
+    /** Found documents are written to the output instead of files */
+    public Extractor setOutput(Output output) {
+        this.output = output;
+        return this;
+    }
+
+    /**
+     * Loaded indexes keyed by index file, the cache can be shared by concurrent extractions. Index is loaded or built
+     * by one extraction, the others wait for it.
+     */
+    public Extractor setIndexCache(ConcurrentMap<Path, CompletableFuture<BANIndex>> indexCache) {
+        this.indexCache = indexCache;
+        return this;
+    }
+
+    /** Found documents are cached, documents found in the cache are written without reading input */
+    public Extractor setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+        return this;
+    }
+
+    /**
+     * Sequential scan saves its restart point to the checkpoint periodically, scan broken by IO error is resumed from
+     * it by the next run or by retry
+     */
+    public Extractor setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /** Number of times broken scan is resumed from the checkpoint, SSH connection is opened again */
+    public Extractor setRetries(int retries) {
+        this.retries = retries;
+        return this;
+    }
+
+    public void runSSH() throws Exception {
+        log.info("Parsing XML file on SSH server. Server name={}, port={}, login={}", serverName, SSHport, userName);
+        for (int attempt = 1; ; attempt++) {
+            try (Connection connection = new Connection(null)) {
+                runSSH(connection);
+                return;
+            } catch (IOException | SshException e) {
+                if (!retry(e, attempt))
+                    throw e;
             }
-            throw new SshException(new Exception("SSH connection haven't established, " + returnString + "[" + returnCode + "]"));
         }
     }
 
-    private static boolean isCompressed(BufferedInputStream inputStream) throws IOException {
-        byte[] buf = new byte[GZIP_MAGIC_DIGITS.length];
-        inputStream.mark(GZIP_MAGIC_DIGITS.length);
-        if (inputStream.read(buf) == GZIP_MAGIC_DIGITS.length) {
-            inputStream.reset();
-            return (buf[0] == GZIP_MAGIC_DIGITS[0]) && (buf[1] == GZIP_MAGIC_DIGITS[1]) && (buf[2] == GZIP_MAGIC_DIGITS[2]);
+    /** Waits before the next attempt, returns false if there is no checkpoint to resume from or no attempts left */
+    private boolean retry(Exception e, int attempt) {
+        if ((checkpoint == null) || (attempt > retries))
+            return false;
+        log.warn("Scan has been broken: {}, it will be resumed from checkpoint in {} seconds, attempt {} of {}",
+                e, attempt * RETRY_DELAY, attempt, retries);
+        try {
+            Thread.sleep(attempt * RETRY_DELAY * 1000L);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
         }
-        else
-            throw new IOException("file too small");
+        return true;
     }
 
-    public void runSSH() throws Exception {
-        SshClient sshClient = null;
-        log.info("Parsing XML file on SSH server. Server name={}, port={}, login={}", serverName, SSHport, userName);
-        try (SocketTransport sshTransport = new SocketTransport(serverName, SSHport);
-             AutoCloseable sshClientCloser = (sshClient = SshConnector.createInstance().connect(sshTransport, userName))::exit) {
-            if (keyFile != null) {
-                log.info("Try to connect using public key file authenthification, key file name={}", keyFile);
-                SshPrivateKeyFile pkf = SshPrivateKeyFileFactory.parse(Files.readAllBytes(keyFile));
-                SshKeyPair pair = pkf.toKeyPair(password);
-                PublicKeyAuthentication pk = new PublicKeyAuthentication();
-                pk.setPrivateKey(pair.getPrivateKey());
-                pk.setPublicKey(pair.getPublicKey());
-
-                checkSSHAuthentication(sshClient, pk);
-            } else {
-                log.info("Try to connect using password authentication, password={}", password.substring(0, 1) + "..." + password.substring(password.length() - 1));
-                PasswordAuthentication pwd = new PasswordAuthentication();
-                pwd.setPassword(password);
-                checkSSHAuthentication(sshClient, pwd);
+    public SSHServer getSSHServer() {
+        return new SSHServer(serverName, userName).setPort(SSHport).setPassword(password).setKeyFile(keyFile);
+    }
+
+    /** SSH connection opened by first use, documents found in result cache are written without connecting */
+    private class Connection implements AutoCloseable {
+        private SshClient sshClient;
+
+        Connection(SshClient sshClient) {
+            this.sshClient = sshClient;
+        }
+
+        SshClient get() throws Exception {
+            if (sshClient == null)
+                sshClient = getSSHServer().connect();
+            return sshClient;
+        }
+
+        @Override
+        public void close() throws IOException, SshException {
+            if (sshClient != null)
+                sshClient.exit();
+        }
+    }
+
+    /** Parses XML file on SSH server by already authenticated client, the client isn't closed */
+    public void runSSH(SshClient sshClient) throws Exception {
+        runSSH(new Connection(sshClient));
+    }
+
+    private void runSSH(Connection connection) throws Exception {
+        checkFeatures();
+        ScheduledExecutorService reporter = startMetrics(0);
+        try {
+            extractSSH(connection);
+        } finally {
+            closeProjection();
+            stopMetrics(reporter);
+        }
+    }
+
+    private void extractSSH(Connection connection) throws Exception {
+        long started = System.currentTimeMillis();
+        if (resultCache != null) {
+            // recent stat is trusted, so cached documents are written without connecting to the server
+            String file = "sftp://" + userName + "@" + serverName + ":" + SSHport + "/" + inputFileName;
+            long[] stat = resultCache.getStat(file);
+            if (stat == null) {
+                SftpClient sftp = new SftpClient(connection.get());
+                try (AutoCloseable sftpClientCloser = sftp::exit) {
+                    SftpFileAttributes attributes = sftp.stat(inputFileName);
+                    stat = new long[]{attributes.getSize().longValue(), attributes.getModifiedTime().longValue() * 1000};
+                }
+                resultCache.putStat(file, stat[0], stat[1]);
             }
+            if (readResultCache(file, stat[0], stat[1]))
+                return;
+        }
 
-            SftpClient sftp = new SftpClient(sshClient);
-            try (AutoCloseable sftpClientCloser = sftp::exit;
-                 InputStream inputStream = sftp.getInputStream(inputFileName)) {
+        SshClient sshClient = connection.get();
+        if (remoteFilter) {
+            if (useIndex)
+                log.warn("Index isn't used for remote filtering");
+            try (CountingInputStream inputStream = new CountingInputStream(RemoteFilter.open(sshClient, inputFileName, wantedBANs))) {
                 run(inputStream);
+                logTransferRate(inputStream.getCount(), started);
+            }
+            return;
+        }
+
+        SftpClient sftp = new SftpClient(sshClient);
+        List<CountingInputStream> inputStreams = new ArrayList<>();
+        Source source = position -> {
+            CountingInputStream inputStream = new CountingInputStream(openSftp(sftp, position));
+            inputStreams.add(inputStream);
+            return inputStream;
+        };
+        try (AutoCloseable sftpClientCloser = sftp::exit) {
+            if (sftpWindow > 0) {
+                sftp.setBlockSize(sftpBlockSize);
+                sftp.setMaxAsyncRequests(Math.max(1, sftpWindow / sftpBlockSize));
+            }
+            SftpFileAttributes attributes = sftp.stat(inputFileName);
+            metrics.setSize(attributes.getSize().longValue());
+            if (useIndex) {
+                runIndexed(source, attributes.getSize().longValue(), attributes.getModifiedTime().longValue() * 1000,
+                        (indexFile != null) ? indexFile : Paths.get(serverName + "_" + Paths.get(inputFileName).getFileName() + ".idx"));
+            } else
+                scan(source, attributes.getSize().longValue(), attributes.getModifiedTime().longValue() * 1000);
+
+            long transferred = 0;
+            for (CountingInputStream inputStream : inputStreams)
+                transferred += inputStream.getCount();
+            logTransferRate(transferred, started);
+        }
+    }
+
+    /** Writes documents found in result cache, returns true if all BANs have been found */
+    private boolean readResultCache(String file, long size, long modified) throws IOException {
+        wantedBANs = new LinkedHashSet<>();
+        int hits = 0;
+        for (String BAN : BANs) {
+            String key = ResultCache.getKey(file, size, modified, verbatim, BAN);
+            if (resultCache.get(key, this::openOutputStream, BAN)) {
+                log.info("BAN {} found in result cache", BAN);
+                foundBANs.add(BAN);
+                metrics.found();
+                hits++;
+            } else {
+                cacheKeys.put(BAN, key);
+                wantedBANs.add(BAN);
+            }
+        }
+        log.info("Result cache: {} hits, {} misses, {} hits, {} misses in total", hits, wantedBANs.size(),
+                resultCache.getHits(), resultCache.getMisses());
+        return wantedBANs.isEmpty();
+    }
+
+    private static void logTransferRate(long transferred, long started) {
+        long time = Math.max(1, System.currentTimeMillis() - started);
+        log.info("{} bytes have been transferred in {} ms, {} Kb/s", transferred, time, transferred * 1000 / 1024 / time);
+    }
+
+    /** Pipelined read runs on read ahead thread, it is cancelled when the stream is closed */
+    private InputStream openSftp(SftpClient sftp, long position) throws IOException {
+        if (sftpWindow <= 0)
+            try {
+                return sftp.getInputStream(inputFileName, position);
+            } catch (SftpStatusException | SshException e) {
+                throw new IOException(e);
             }
+
+        return new ReadAheadInputStream((outputStream, closed) -> sftp.get(inputFileName, outputStream, new FileTransferProgress() {
+            @Override
+            public void started(long bytesTotal, String remoteFile) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return closed.getAsBoolean();
+            }
+
+            @Override
+            public void progressed(long bytesSoFar) {
+            }
+
+            @Override
+            public void completed() {
+            }
+        }, position), bufferSize, Math.max(2, sftpWindow / bufferSize));
+    }
+
+    private OutputStream getOutputStream(OutputStream outputStream, String BAN) throws IOException {
+        return fileFormat.getCodec().compress(outputStream, getFileName4Archive(Paths.get(inputFileName).getFileName().toString(), BAN),
+                compressionLevel, bufferSize);
+    }
+
+    private String getOutputFileName(String BAN) {
+        if (BANs.size() == 1)
+            return outputFileName;
+
+        return Paths.get(outputFileName, getFileName4Archive(Paths.get(inputFileName).getFileName().toString(), BAN) + getExt()).toString();
+    }
+
+    private String prepareOutputFile(String BAN) throws IOException {
+        String fileName = getOutputFileName(BAN);
+        log.info("BAN {} will be written to {}", BAN, fileName);
+        if (BANs.size() != 1)
+            Files.createDirectories(Paths.get(outputFileName));
+        return fileName;
+    }
+
+    private OutputStream openOutputStream(String BAN) throws IOException {
+        OutputStream outputStream = metrics.output((output != null) ? output.open(BAN) :
+                getOutputStream(new BufferedOutputStream(new FileOutputStream(prepareOutputFile(BAN)), bufferSize), BAN));
+        String key = cacheKeys.get(BAN);
+        if (key == null)
+            return outputStream;
+        ResultCache.Capture capture = resultCache.capture(key, outputStream);
+        captures.put(BAN, capture);
+        return capture;
+    }
+
+    private void openProjection() throws IOException {
+        String name = Paths.get(inputFileName).getFileName().toString().replaceFirst("\\.gz$", "").replaceFirst("\\.xml$", "") +
+                projection.getFormat().getExtension();
+        if ((projectionFileName == null) || projectionFileName.trim().isEmpty())
+            projectionFileName = Paths.get(inputFileName).resolveSibling(name) + getExt();
+        else if (new File(projectionFileName).isDirectory())
+            projectionFileName = Paths.get(projectionFileName, name) + getExt();
+        log.info("Projection will be written to {}", projectionFileName);
+        projectionWriter = new OutputStreamWriter(metrics.output(fileFormat.getCodec().compress(
+                new BufferedOutputStream(new FileOutputStream(projectionFileName), bufferSize), name, compressionLevel, bufferSize)),
+                StandardCharsets.UTF_8);
+        projection.writeHeader(projectionWriter);
+    }
+
+    private void closeProjection() throws IOException {
+        if (projectionWriter != null) {
+            projectionWriter.close();
+            projectionWriter = null;
         }
     }
 
-    private OutputStream getOutputStream(OutputStream outputStream) throws IOException {
-        switch (fileFormat) {
-            case ZIP:
-                ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-                zipOutputStream.setLevel(9);
-                zipOutputStream.putNextEntry(new ZipEntry(getFileName4Archive(Paths.get(inputFileName).getFileName().toString())));
-                return zipOutputStream;
-            case GZIP:
-                return new GZIPOutputStream(outputStream);
-            default: return null;
+    private OutputStream openSplitOutputStream(String name, boolean append) throws IOException {
+        if (!append)
+            prepareOutputFile(name);
+        return getOutputStream(new BufferedOutputStream(new FileOutputStream(getOutputFileName(name), append), bufferSize), name);
+    }
+
+    /** Document of BAN is complete, it is cached if it has been captured */
+    private void found(String BAN) throws IOException {
+        foundBANs.add(BAN);
+        metrics.found();
+        ResultCache.Capture capture = captures.remove(BAN);
+        if (capture != null)
+            capture.commit();
+    }
+
+    private Writer openWriter(Context context, String BAN) throws IOException {
+        context.outputStream = openOutputStream(BAN);
+        return new OutputStreamWriter(context.outputStream, StandardCharsets.UTF_8);
+    }
+
+    private void closeWriter(Context context) throws IOException {
+        if (context.writer != null) {
+            context.writer.close();
+            context.writer = null;
+            context.outputStream = null;
+        } else if (context.outputStream != null) {
+            context.outputStream.close();
+            context.outputStream = null;
         }
     }
 
     private void run(InputStream inputStream) throws IOException {
-        log.info("BAN={}, input file name={}, output file name={}", BAN, inputFileName, outputFileName);
-        try(BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
-            InputStream inputStreamInternal = isCompressed(bufferedInputStream)  ? new GZIPInputStream(bufferedInputStream) : null;
-            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(outputFileName));
-            OutputStream outputStream = getOutputStream(bufferedOutputStream);
-            OutputStreamWriter outputStreamWriter = new OutputStreamWriter((outputStream == null) ? bufferedOutputStream : outputStream)) {
-            extract((inputStreamInternal == null) ? bufferedInputStream : inputStreamInternal, outputStreamWriter);
+        run(metrics.input(inputStream), wantedBANs);
+    }
+
+    /** Sequential scan of the whole input, it resumes from the checkpoint if there is one */
+    private void scan(Source source, long size, long modified) throws IOException {
+        if (checkpoint == null) {
+            try (InputStream inputStream = source.open(0)) {
+                run(inputStream);
+            }
+            return;
+        }
+
+        Checkpoint.State state = checkpoint.load(size, modified, wantedBANs);
+        Set<String> BANs = wantedBANs;
+        if (state != null) {
+            BANs = new LinkedHashSet<>(wantedBANs);
+            BANs.retainAll(state.getPendingBANs());
+            log.info("Scan resumes from checkpoint {} at offset {}, {} documents have been scanned, {} BANs are pending",
+                    checkpoint.getPath(), state.getPosition().getOffset(), state.getDocuments(), BANs.size());
+            for (String BAN : wantedBANs)
+                if (!BANs.contains(BAN))
+                    foundBANs.add(BAN);
+            if (BANs.isEmpty()) {
+                checkpoint.delete();
+                return;
+            }
+        }
+        if (!verbatim && !prefilter) {
+            // prefilter finds document ends, resumed scan needs the root element prefilter wraps documents in
+            log.info("Prefilter is turned on for checkpoint");
+            prefilter = true;
+        }
+        checkpoint.start(size, modified, wantedBANs, state);
+        scanCheckpoint = checkpoint;
+        resumeState = state;
+        resumeDeclaration = (state == null) ? null : readDeclaration(source);
+        try (InputStream inputStream = source.open((state == null) ? 0 : state.getPosition().getMemberCompressedOffset())) {
+            run(metrics.input(inputStream), BANs);
+        } finally {
+            scanCheckpoint = null;
+            resumeState = null;
+            resumeDeclaration = null;
+        }
+        checkpoint.delete();
+    }
+
+    private void run(InputStream inputStream, Collection<String> BANs) throws IOException {
+        log.info("BAN={}, input file name={}, output file name={}", StringUtils.join(BANs, ','), inputFileName, outputFileName);
+        Context context = new Context(BANs);
+        boolean broken = false;
+        try(InputStream xmlInputStream = metrics.xml(decompress(inputStream, context))) {
+            if (projection != null)
+                project(context, projection.matcher(), prefilter ?
+                        new PrefilterInputStream(xmlInputStream, BANs, bufferSize, this::printBAN, stagingThreshold) : xmlInputStream);
+            else if (splitter != null)
+                splitter.split(xmlInputStream, bufferSize, this::openSplitOutputStream, this::printWrittenBAN, metrics);
+            else if (selector != null)
+                select(context, selector.matcher(), xmlInputStream);
+            else if (verbatim)
+                copy(context, xmlInputStream);
+            else
+                extract(context, prefilter ? new PrefilterInputStream(xmlInputStream, BANs, bufferSize, this::printBAN, stagingThreshold)
+                        .setCheckpoint(scanCheckpoint) : xmlInputStream);
         } catch (FileNotFoundException fnfe) {
             log.error("File not found: " + inputFileName);
         } catch (IOException ioe) {
             log.error("You have some problem with file: " + inputFileName + ", exception: " + ioe.getLocalizedMessage());
+            if ((scanCheckpoint != null) || remoteFilter) {
+                broken = true;
+                saveCheckpoint();
+                throw ioe;
+            }
         }  catch (XMLStreamException e) {
+            IOException ioe = getIOException(e);
+            if (((scanCheckpoint != null) || remoteFilter) && (ioe != null)) {
+                log.error("You have some problem with file: " + inputFileName + ", exception: " + ioe.getLocalizedMessage());
+                broken = true;
+                saveCheckpoint();
+                throw ioe;
+            }
             log.error("XMLStreamException", e);
         } finally {
-            if (!toFile) {
-                log.error("BAN {} has not found", BAN);
-                Files.delete(Paths.get(outputFileName));
+            if (context.toFile) {
+                log.error("BAN {} has been written partially", context.BAN);
+                closeWriter(context);
+                context.toFile = false;
+            }
+            if (!broken)
+                for (String BAN : context.pendingBANs)
+                    logNotFound(BAN);
+            if ((selector != null) && foundBANs.isEmpty())
+                log.error("No document matches {}", selector);
+        }
+    }
+
+    /** IO error of the input wrapped by the parser, null if the parsing error isn't caused by IO */
+    private static IOException getIOException(XMLStreamException e) {
+        for (Throwable cause = e; cause != null; cause = (cause instanceof XMLStreamException) && (cause.getCause() == null) ?
+                ((XMLStreamException) cause).getNestedException() : cause.getCause())
+            if (cause instanceof IOException)
+                return (IOException) cause;
+        return null;
+    }
+
+    private void saveCheckpoint() {
+        if (scanCheckpoint == null)
+            return;
+        try {
+            scanCheckpoint.save();
+            log.info("Checkpoint has been saved to {}", scanCheckpoint.getPath());
+        } catch (IOException e) {
+            log.warn("Checkpoint can't be saved to {}: {}", scanCheckpoint.getPath(), e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Recognizes format of input stream, decompression runs on read ahead thread if it is on. Scan resumed from the
+     * checkpoint starts at the gzip member of the restart point, input is inflated and skipped up to it.
+     */
+    private InputStream decompress(InputStream inputStream, Context context) throws IOException {
+        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream, bufferSize);
+        Checkpoint.Position from = (resumeState == null) ? null : resumeState.getPosition();
+        Codec codec = (from == null) ? Codec.detect(bufferedInputStream, codecs) :
+                resumeState.isCompressed() ? StandardCodec.GZIP : StandardCodec.NONE;
+        if (codec != StandardCodec.NONE)
+            log.info("Input file is compressed by {}", codec);
+        if ((scanCheckpoint != null) && (codec != StandardCodec.NONE) && (codec != StandardCodec.GZIP)) {
+            log.warn("Checkpoint works for plain and gzip input only, {} input is scanned without it", codec);
+            scanCheckpoint = null;
+        }
+
+        InputStream xmlInputStream;
+        if ((scanCheckpoint != null) && (codec == StandardCodec.GZIP))
+            xmlInputStream = new GZIPMemberInputStream(bufferedInputStream, bufferSize,
+                    (from == null) ? 0 : from.getMemberCompressedOffset(), (from == null) ? 0 : from.getMemberOffset())
+                    .setMemberListener(scanCheckpoint::memberStart);
+        else
+            xmlInputStream = codec.decompress(bufferedInputStream, bufferSize);
+        if (from != null) {
+            long started = System.nanoTime();
+            for (long n = from.getOffset() - from.getMemberOffset(); n > 0; ) {
+                long skipped = xmlInputStream.skip(n);
+                if (skipped <= 0)
+                    throw new EOFException("Input ends before the restart point " + from.getOffset());
+                n -= skipped;
             }
+            metrics.skipped(System.nanoTime() - started);
+            xmlInputStream = new SequenceInputStream(new ByteArrayInputStream(resumeDeclaration), xmlInputStream);
         }
+        if (readAhead > 0)
+            xmlInputStream = new ReadAheadInputStream(xmlInputStream, bufferSize, readAhead);
+        if (scanCheckpoint != null)
+            scanCheckpoint.track((from == null) ? 0 : from.getOffset() - resumeDeclaration.length, codec == StandardCodec.GZIP, context.pendingBANs);
+        return xmlInputStream;
     }
 
     public void runLocal() throws IOException {
         log.info("Parsing XML file on local or remote filesystem");
-        run(new FileInputStream(inputFileName));
+        checkFeatures();
+        for (int attempt = 1; ; attempt++) {
+            ScheduledExecutorService reporter = null;
+            try {
+                reporter = startMetrics(Files.size(Paths.get(inputFileName)));
+                extractLocal();
+                return;
+            } catch (IOException e) {
+                if (!retry(e, attempt))
+                    throw e;
+            } finally {
+                closeProjection();
+                stopMetrics(reporter);
+            }
+        }
+    }
+
+    /**
+     * Byte level scanning, index and result cache know only TITAN_BAN, they are turned off for other selectors. Split
+     * reads the whole input by itself. Checkpoint restarts extraction of BANs only.
+     */
+    private void checkFeatures() {
+        if ((checkpoint != null) && ((splitter != null) || (projection != null) || (selector != null))) {
+            log.warn("Checkpoint works for extraction of BANs only, it is turned off");
+            checkpoint = null;
+        }
+        if ((checkpoint != null) && (useIndex || remoteFilter))
+            log.warn("Index and remote filter don't scan the whole input, checkpoint isn't used");
+        if (splitter != null) {
+            log.info("Input file will be split to {}", (splitter.getShards() > 0) ? splitter.getShards() + " shards" : "files of BANs");
+            if (useIndex || remoteFilter || (parallelism > 1) || (resultCache != null) || (selector != null))
+                log.warn("Index, parallel scan, remote filter, result cache and selector aren't used by split, they are turned off");
+            if ((fileFormat == FileFormat.ZIP) && (splitter.getShards() > splitter.getMaxOpenFiles())) {
+                log.warn("ZIP archive can't be appended, all {} shards will be kept open", splitter.getShards());
+                splitter.setMaxOpenFiles(splitter.getShards());
+            }
+            splitter.setStagingThreshold(stagingThreshold);
+            selector = null;
+        } else if (projection != null) {
+            log.info("Documents are projected to {}", projection);
+            if (verbatim || (resultCache != null) || (selector != null))
+                log.warn("Verbatim copy, result cache and selector aren't used by projection, they are turned off");
+            verbatim = false;
+            resultCache = null;
+            selector = null;
+            if (BANs.isEmpty()) {
+                // all documents are parsed
+                if (useIndex || remoteFilter || (parallelism > 1))
+                    log.warn("Index, parallel scan and remote filter need BANs, they are turned off");
+                useIndex = false;
+                remoteFilter = false;
+                parallelism = 1;
+                prefilter = false;
+            }
+            return;
+        } else if (selector != null) {
+            log.info("Documents are selected by {}", selector);
+            if (verbatim || useIndex || remoteFilter || (parallelism > 1) || (resultCache != null))
+                log.warn("Verbatim copy, index, parallel scan, remote filter and result cache work for TITAN_BAN only, they are turned off");
+        } else
+            return;
+        verbatim = false;
+        useIndex = false;
+        remoteFilter = false;
+        parallelism = 1;
+        prefilter = false;
+        resultCache = null;
+    }
+
+    /** Returns reporter calling metrics listener periodically, null if there is no periodic calls */
+    private ScheduledExecutorService startMetrics(long size) {
+        metrics = new Metrics(inputFileName, size);
+        if ((metricsListener == null) || (metricsInterval <= 0))
+            return null;
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Metrics metrics = this.metrics;
+        reporter.scheduleAtFixedRate(() -> metricsListener.progress(metrics), metricsInterval, metricsInterval, TimeUnit.SECONDS);
+        return reporter;
     }
 
-    private void addString(String s) throws IOException {
-        if (doAdd)
-            if (toFile)
-                writer.append(s);
+    private void stopMetrics(ScheduledExecutorService reporter) {
+        if (reporter != null)
+            reporter.shutdownNow();
+        metrics.finish();
+        if (metricsListener != null)
+            metricsListener.completed(metrics);
+    }
+
+    private void extractLocal() throws IOException {
+        Path path = Paths.get(inputFileName);
+        if ((resultCache != null) && readResultCache(path.toAbsolutePath().toString(), Files.size(path), Files.getLastModifiedTime(path).toMillis()))
+            return;
+        Source source = position -> {
+            FileInputStream inputStream = new FileInputStream(inputFileName);
+            inputStream.getChannel().position(position);
+            return inputStream;
+        };
+
+        if (useIndex)
+            runIndexed(source, Files.size(path), Files.getLastModifiedTime(path).toMillis(),
+                    (indexFile != null) ? indexFile : Paths.get(inputFileName + ".idx"));
+        else if ((parallelism > 1) && (detectCodec(path) == StandardCodec.NONE))
+            runParallel(source, path);
+        else {
+            if (parallelism > 1)
+                log.warn("Input file is compressed, it will be parsed sequentially");
+            scan(source, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+        }
+    }
+
+    private Codec detectCodec(Path path) throws IOException {
+        try (BufferedInputStream inputStream = new BufferedInputStream(Files.newInputStream(path), Codec.HEADER_SIZE)) {
+            return Codec.detect(inputStream, codecs);
+        }
+    }
+
+    private void runParallel(Source source, Path path) throws IOException {
+        List<BANIndex.Entry> entries = new ParallelScanner(path, wantedBANs, false, parallelism).scan();
+        Set<String> notFound = new LinkedHashSet<>(wantedBANs);
+        for (BANIndex.Entry entry : entries)
+            notFound.remove(entry.getBAN());
+        for (String BAN : notFound)
+            logNotFound(BAN);
+
+        runEntries(source, false, entries);
+    }
+
+    private BANIndex getIndex(Source source, long size, long modified, Path indexFile) throws IOException {
+        if (indexCache == null)
+            return loadIndex(source, size, modified, indexFile);
+
+        while (true) {
+            CompletableFuture<BANIndex> future = new CompletableFuture<>();
+            CompletableFuture<BANIndex> cached = indexCache.putIfAbsent(indexFile, future);
+            if (cached == null) {
+                try {
+                    BANIndex index = loadIndex(source, size, modified, indexFile);
+                    future.complete(index);
+                    return index;
+                } catch (IOException | RuntimeException e) {
+                    // waiting extractions try again by themselves
+                    indexCache.remove(indexFile, future);
+                    future.completeExceptionally(e);
+                    throw e;
+                }
+            }
+
+            try {
+                BANIndex index = cached.join();
+                if (index.isValid(size, modified))
+                    return index;
+                indexCache.remove(indexFile, cached);
+            } catch (CompletionException e) {
+                log.warn("Index {} hasn't been loaded by concurrent extraction: {}", indexFile, e.getCause().getLocalizedMessage());
+            }
+        }
+    }
+
+    private BANIndex loadIndex(Source source, long size, long modified, Path indexFile) throws IOException {
+        BANIndex index = BANIndex.load(indexFile);
+        if ((index == null) || !index.isValid(size, modified)) {
+            log.info("Index {} is absent or out of date, building it", indexFile);
+            try (InputStream inputStream = source.open(0)) {
+                index = BANIndex.build(inputStream, size, modified);
+            }
+            try {
+                index.save(indexFile);
+            } catch (IOException e) {
+                log.warn("Index can't be saved to {}: {}", indexFile, e.getLocalizedMessage());
+            }
+        }
+        return index;
+    }
+
+    private void runIndexed(Source source, long size, long modified, Path indexFile) throws IOException {
+        BANIndex index = getIndex(source, size, modified, indexFile);
+        List<BANIndex.Entry> entries = new ArrayList<>();
+        for (String BAN : wantedBANs) {
+            BANIndex.Entry entry = index.get(BAN);
+            if (entry == null)
+                logNotFound(BAN);
             else
-                stringBuilder.append(s);
+                entries.add(entry);
+        }
+        // read forward only, several documents of the same gzip member are extracted with one decompressor
+        entries.sort(Comparator.comparingLong(BANIndex.Entry::getOffset));
+        runEntries(source, index.isCompressed(), entries);
+    }
+
+    /**
+     * Parses only documents with known offsets, entries must be ordered by offset. Document is parsed with XML
+     * declaration of input, so it is decoded by the encoding of input.
+     */
+    private void runEntries(Source source, boolean compressed, List<BANIndex.Entry> entries) throws IOException {
+        byte[] declaration = (verbatim || entries.isEmpty()) ? null : readDeclaration(source);
+        InputStream inputStream = null;
+        InputStream sourceStream = null;
+        long position = 0;
+        try {
+            for (BANIndex.Entry entry : entries) {
+                if ((inputStream == null) || !compressed || (entry.getMemberOffset() > position)) {
+                    if (inputStream != null)
+                        inputStream.close();
+                    sourceStream = source.open(entry.getMemberCompressedOffset());
+                    inputStream = metrics.input(sourceStream);
+                    if (compressed)
+                        inputStream = new GZIPMemberInputStream(new BufferedInputStream(inputStream, bufferSize), bufferSize,
+                                entry.getMemberCompressedOffset(), entry.getMemberOffset());
+                    position = entry.getMemberOffset();
+                }
+                log.info("BAN {} is indexed at offset {}, length {}", entry.getBAN(), entry.getOffset(), entry.getLength());
+                // compressed data is inflated up to the document
+                long started = System.nanoTime();
+                position += inputStream.skip(entry.getOffset() - position);
+                metrics.skipped(System.nanoTime() - started);
+                RangeInputStream rangeInputStream = new RangeInputStream(inputStream, entry.getLength());
+                if (verbatim)
+                    copy(entry, sourceStream, rangeInputStream, compressed);
+                else
+                    run(new SequenceInputStream(new ByteArrayInputStream(declaration), rangeInputStream), Collections.singleton(entry.getBAN()));
+                while (rangeInputStream.skip(entry.getLength()) > 0) ;
+                position = entry.getOffset() + entry.getLength();
+            }
+        } finally {
+            if (inputStream != null)
+                inputStream.close();
+        }
+    }
+
+    /** XML declaration at the start of input, empty if there is none */
+    private byte[] readDeclaration(Source source) throws IOException {
+        try (InputStream inputStream = source.open(0)) {
+            BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream, bufferSize);
+            try (InputStream xmlInputStream = Codec.detect(bufferedInputStream, codecs).decompress(bufferedInputStream, bufferSize)) {
+                byte[] prolog = new byte[PrefilterInputStream.MAX_DECLARATION_SIZE];
+                return PrefilterInputStream.getDeclaration(prolog, PrefilterInputStream.readProlog(xmlInputStream, prolog));
+            }
+        }
+    }
+
+    /** Copies found documents byte by byte, the document offsets are found on the fly */
+    private void copy(Context context, InputStream inputStream) throws IOException {
+        DocumentFilter filter = new DocumentFilter(context.pendingBANs, new DocumentFilter.Sink() {
+            @Override
+            public OutputStream documentStart(String BAN) throws IOException {
+                lf();
+                log.info("BAN {} found", BAN);
+                context.BAN = BAN;
+                context.toFile = true;
+                return context.outputStream = openOutputStream(BAN);
+            }
+
+            @Override
+            public void documentEnd(String BAN) throws IOException {
+                closeWriter(context);
+                context.toFile = false;
+                context.pendingBANs.remove(BAN);
+                found(BAN);
+                if (scanCheckpoint != null)
+                    scanCheckpoint.documentParsed();
+            }
+        }, this::printBAN, stagingThreshold).setCheckpoint(scanCheckpoint);
+        try {
+            filter.copy(inputStream, bufferSize);
+        } finally {
+            filter.close();
+        }
+        lf();
+    }
+
+    /** Copies the document with known offset, plain local file is copied to plain output file without user space buffers */
+    private void copy(BANIndex.Entry entry, InputStream inputStream, RangeInputStream rangeInputStream, boolean compressed) throws IOException {
+        log.info("BAN {} found", entry.getBAN());
+        if (!compressed && (fileFormat == FileFormat.XML) && (output == null) && (resultCache == null) && (inputStream instanceof FileInputStream)) {
+            FileChannel channel = ((FileInputStream) inputStream).getChannel();
+            long started = System.nanoTime();
+            try (FileChannel target = FileChannel.open(Paths.get(prepareOutputFile(entry.getBAN())),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (long position = 0; position < entry.getLength(); )
+                    position += channel.transferTo(entry.getOffset() + position, entry.getLength() - position, target);
+            }
+            metrics.transferred(entry.getLength(), System.nanoTime() - started);
+        } else
+            try (OutputStream outputStream = openOutputStream(entry.getBAN())) {
+                byte[] buffer = new byte[bufferSize];
+                int length;
+                while ((length = rangeInputStream.read(buffer)) != -1)
+                    outputStream.write(buffer, 0, length);
+            }
+        found(entry.getBAN());
+    }
+
+    private void addString(Context context, String s) throws IOException {
+        if (context.doAdd)
+            if (context.toFile)
+                context.writer.append(s);
+            else
+                context.stagingWriter.append(s);
+    }
+
+    private void resetStaging(Context context) throws IOException {
+        context.stagingWriter.flush();
+        context.staging.reset();
     }
 
     private String nameAsString(QName qName) {
@@ -223,16 +1142,16 @@ public class Extractor {
     }
 
 
-    private void addString(StartElement startElement) throws IOException {
-        addString("<");
-        addString(nameAsString(startElement.getName()));
+    private void addString(Context context, StartElement startElement) throws IOException {
+        addString(context, "<");
+        addString(context, nameAsString(startElement.getName()));
         // add any attributes
         if (startElement.getAttributes().hasNext()) {
             Iterator it = startElement.getAttributes();
             Attribute attr = null;
             while (it.hasNext()) {
                 attr = (Attribute) it.next();
-                addString(" " + nameAsString(attr.getName()) + "=\"" + StringEscapeUtils.escapeXml10(attr.getValue()) + "\"");
+                addString(context, " " + nameAsString(attr.getName()) + "=\"" + StringEscapeUtils.escapeXml10(attr.getValue()) + "\"");
             }
         }
         // add any namespaces
@@ -241,11 +1160,11 @@ public class Extractor {
             Namespace attr = null;
             while (it.hasNext()) {
                 attr = (Namespace) it.next();
-                addString(" ");
-                addString(attr.toString());
+                addString(context, " ");
+                addString(context, attr.toString());
             }
         }
-        addString(">");
+        addString(context, ">");
     }
 
     private void lf() {
@@ -263,7 +1182,28 @@ public class Extractor {
         lineBAN = 0;
     }
 
+    private void logNotFound(String BAN) {
+        if (logNotFound)
+            log.error("BAN {} has not found", BAN);
+        else
+            log.debug("BAN {} has not found in {}", BAN, inputFileName);
+    }
+
+    /** Called for every skipped document */
     private void printBAN(String BAN) {
+        metrics.document();
+        print(BAN);
+    }
+
+    /** Document of BAN is written to split file or projection */
+    private void printWrittenBAN(String BAN) {
+        metrics.found();
+        print(BAN);
+    }
+
+    private void print(String BAN) {
+        if (!printBANs)
+            return;
         if ((lineBAN + BAN.length()) > terminalWidth)
             resetT();
 
@@ -282,79 +1222,95 @@ public class Extractor {
         }
     }
 
-    private void extract(InputStream inputStream, Writer writer) throws XMLStreamException {
-        this.writer = writer;
-        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
-        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+    private void extract(Context context, InputStream inputStream) throws XMLStreamException {
         XMLEventReader eventReader = xmlInputFactory.createXMLEventReader(inputStream);
+        context.staging = new StagingBuffer(stagingThreshold);
+        context.stagingWriter = new OutputStreamWriter(context.staging, StandardCharsets.UTF_8);
 
-        try (AutoCloseable closer = eventReader::close) {
+        try (AutoCloseable closer = eventReader::close;
+             AutoCloseable stagingCloser = context.staging) {
             while (eventReader.hasNext())
             {
                 XMLEvent event = eventReader.nextEvent();
 
                 switch (event.getEventType()) {
                     case XMLStreamConstants.START_ELEMENT:
-                        depth++;
+                        context.depth++;
                         StartElement startElement = event.asStartElement();
                         String lName = startElement.getName().getLocalPart();
 
                         switch (lName) {
                             case TAG_START:
-                                //if ((depth == 2) || (depth == 1)) {
-                                doAdd = true;
-                                depthTITAN_BAN = 0;
-                                stringBuilder.setLength(0);
+                                //if ((context.depth == 2) || (context.depth == 1)) {
+                                context.doAdd = true;
+                                context.depthTITAN_BAN = 0;
+                                resetStaging(context);
                                 //}
                                 break;
                             case TAG_TITAN_BAN:
-                                checkTITAN_BAN = true;
-                                depthTITAN_BAN++;
+                                context.checkTITAN_BAN = true;
+                                context.depthTITAN_BAN++;
                                 break;
                             default:
-                                checkTITAN_BAN = false;
+                                context.checkTITAN_BAN = false;
                         }
-                        addString(startElement);
+                        addString(context, startElement);
                         break;
                     case XMLStreamConstants.CHARACTERS:
                         String characters = event.asCharacters().getData();
-                        //if (checkTITAN_BAN && ((depth == 4) || (depth == 3))) {
-                        if (checkTITAN_BAN) {
-                            if (characters.equals(BAN)) {
+                        //if (context.checkTITAN_BAN && ((context.depth == 4) || (context.depth == 3))) {
+                        if (context.checkTITAN_BAN) {
+                            if (!context.toFile && context.pendingBANs.contains(characters)) {
                                 lf();
-                                log.info("BAN {} found", BAN);
-                                toFile = true;
-                                addString("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-                                addString(stringBuilder.toString());
-                                stringBuilder.setLength(0);
+                                log.info("BAN {} found", characters);
+                                context.BAN = characters;
+                                context.writer = openWriter(context, context.BAN);
+                                context.toFile = true;
+                                addString(context, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+                                context.writer.flush();
+                                context.stagingWriter.flush();
+                                context.staging.writeTo(context.outputStream);
+                                resetStaging(context);
                             } else {
                                 printBAN(characters);
-                                //doAdd = false;
+                                //context.doAdd = false;
                             }
                         }
-                        addString(StringEscapeUtils.escapeXml10(characters));
+                        addString(context, StringEscapeUtils.escapeXml10(characters));
                         break;
                     case XMLStreamConstants.END_ELEMENT:
-                        depth--;
+                        context.depth--;
                         //EndElement endElement = event.asEndElement();
                         String endElementName = event.asEndElement().getName().getLocalPart();
 
                         if (endElementName.equals(TAG_TITAN_BAN)) {
-                            checkTITAN_BAN = false;
-                            depthTITAN_BAN--;
+                            context.checkTITAN_BAN = false;
+                            context.depthTITAN_BAN--;
 
-                            if ((depthTITAN_BAN == 0) && !toFile)
-                                doAdd = false;
+                            if ((context.depthTITAN_BAN == 0) && !context.toFile)
+                                context.doAdd = false;
                         }
-                        addString(event.asEndElement().toString());
-                        if (toFile && event.asEndElement().getName().getLocalPart().equals(TAG_START))
-                            return;
+                        addString(context, event.asEndElement().toString());
+                        if (context.toFile && endElementName.equals(TAG_START)) {
+                            closeWriter(context);
+                            context.toFile = false;
+                            context.doAdd = false;
+                            context.pendingBANs.remove(context.BAN);
+                            found(context.BAN);
+                            if (scanCheckpoint != null)
+                                scanCheckpoint.documentParsed();
+                            if (context.pendingBANs.isEmpty())
+                                return;
+                        } else if ((scanCheckpoint != null) && endElementName.equals(TAG_START))
+                            scanCheckpoint.documentParsed();
                         break;
                 }
             }
             lf();
         } catch (XMLStreamException e) {
             lf();
+            if ((scanCheckpoint != null) && (getIOException(e) != null))
+                throw e;
             log.error("XML parsing error", e);
 
         } catch (Exception e) {
@@ -362,4 +1318,174 @@ public class Extractor {
             log.error("Something wrong happend when XMLEventReader was closing", e);
         }
     }
+
+    /**
+     * Parses documents checking the selector, every matched document is written by its TITAN_BAN. Document is staged
+     * till the selected element ends.
+     */
+    private void select(Context context, Selector.Matcher matcher, InputStream inputStream) throws XMLStreamException {
+        XMLEventReader eventReader = xmlInputFactory.createXMLEventReader(inputStream);
+        context.staging = new StagingBuffer(stagingThreshold);
+        context.stagingWriter = new OutputStreamWriter(context.staging, StandardCharsets.UTF_8);
+
+        try (AutoCloseable closer = eventReader::close;
+             AutoCloseable stagingCloser = context.staging) {
+            while (eventReader.hasNext()) {
+                XMLEvent event = eventReader.nextEvent();
+
+                switch (event.getEventType()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        StartElement startElement = event.asStartElement();
+                        String name = startElement.getName().getLocalPart();
+                        if (name.equals(TAG_START)) {
+                            context.doAdd = true;
+                            context.documentBAN = null;
+                            matcher.startDocument();
+                            resetStaging(context);
+                        } else if (context.doAdd)
+                            matcher.startElement(name);
+                        addString(context, startElement);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                        String characters = event.asCharacters().getData();
+                        if (context.doAdd) {
+                            matcher.characters(characters);
+                            if ((context.documentBAN == null) && TAG_TITAN_BAN.equals(matcher.current()))
+                                context.documentBAN = characters.trim();
+                        }
+                        addString(context, StringEscapeUtils.escapeXml10(characters));
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        String endElementName = event.asEndElement().getName().getLocalPart();
+                        if (context.doAdd && !endElementName.equals(TAG_START)) {
+                            String value = matcher.endElement();
+                            if ((value != null) && !context.toFile) {
+                                lf();
+                                context.BAN = getDocumentName(context.documentBAN, value);
+                                log.info("Document {} matches {}", context.BAN, selector);
+                                context.writer = openWriter(context, context.BAN);
+                                context.toFile = true;
+                                addString(context, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+                                context.writer.flush();
+                                context.stagingWriter.flush();
+                                context.staging.writeTo(context.outputStream);
+                                resetStaging(context);
+                            }
+                        }
+                        addString(context, event.asEndElement().toString());
+                        if (context.doAdd && endElementName.equals(TAG_START)) {
+                            if (context.toFile) {
+                                closeWriter(context);
+                                context.toFile = false;
+                                found(context.BAN);
+                            } else if (context.documentBAN != null)
+                                printBAN(context.documentBAN);
+                            context.doAdd = false;
+                        }
+                        break;
+                }
+            }
+            lf();
+        } catch (XMLStreamException e) {
+            lf();
+            log.error("XML parsing error", e);
+        } catch (Exception e) {
+            lf();
+            log.error("Something wrong happend when XMLEventReader was closing", e);
+        }
+    }
+
+    /** Selected documents are named by TITAN_BAN, the same TITAN_BAN gets a suffix */
+    private String getDocumentName(String documentBAN, String value) {
+        String name = (documentBAN == null) ? value : documentBAN;
+        for (int i = 2; foundBANs.contains(name); i++)
+            name = ((documentBAN == null) ? value : documentBAN) + "_" + i;
+        return name;
+    }
+
+    /**
+     * Parses documents by stream reader taking only text of projected fields, records of document with wanted BAN
+     * are written as soon as they are complete. Rows which end before TITAN_BAN are kept till TITAN_BAN tells if the
+     * document is wanted. All documents are wanted if there is no BAN.
+     */
+    private void project(Context context, Projection.Matcher matcher, InputStream inputStream) throws XMLStreamException, IOException {
+        if (projectionWriter == null)
+            openProjection();
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(inputStream);
+        boolean all = context.pendingBANs.isEmpty();
+        boolean inDocument = false;
+        boolean wanted = false;
+        String BAN = null;
+
+        try (AutoCloseable closer = reader::close) {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        String name = reader.getLocalName();
+                        if (name.equals(TAG_START)) {
+                            inDocument = true;
+                            wanted = false;
+                            BAN = null;
+                            matcher.startDocument();
+                        } else if (inDocument)
+                            matcher.startElement(name);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (!inDocument)
+                            break;
+                        if (matcher.isCapturing())
+                            matcher.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        if ((BAN == null) && TAG_TITAN_BAN.equals(matcher.current())) {
+                            BAN = reader.getText().trim();
+                            wanted = all || context.pendingBANs.contains(BAN);
+                            if (!wanted)
+                                matcher.dropHeld();
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (!inDocument)
+                            break;
+                        if (!reader.getLocalName().equals(TAG_START)) {
+                            boolean rowEnd = matcher.endElement();
+                            if (wanted) {
+                                matcher.writeHeld(projectionWriter);
+                                if (rowEnd)
+                                    matcher.write(projectionWriter);
+                            } else if (rowEnd && (BAN == null))
+                                matcher.hold();
+                            break;
+                        }
+                        inDocument = false;
+                        if (!wanted) {
+                            if (BAN != null)
+                                printBAN(BAN);
+                            else
+                                log.warn("Document without TITAN_BAN is skipped");
+                            break;
+                        }
+                        if (matcher.endDocument())
+                            matcher.write(projectionWriter);
+                        if (all)
+                            printWrittenBAN(BAN);
+                        else {
+                            context.pendingBANs.remove(BAN);
+                            lf();
+                            log.info("BAN {} found", BAN);
+                            found(BAN);
+                            if (context.pendingBANs.isEmpty())
+                                return;
+                        }
+                        break;
+                }
+            }
+            lf();
+        } catch (XMLStreamException e) {
+            lf();
+            log.error("XML parsing error", e);
+        } catch (Exception e) {
+            lf();
+            log.error("Something wrong happend when XMLStreamReader was closing", e);
+        }
+    }
 }
@@ -0,0 +1,243 @@
+package com.amdocs.banextractor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * GZIP input stream which knows boundaries of gzip members. Reading never crosses a member boundary, so offsets of
+ * the member the last returned bytes came from are always known. Decompression can be restarted at the start of any
+ * member, it is used by index to seek into compressed file. Multi-member files (concatenated gzip, pigz, bgzip) are
+ * read as one stream like gzip does.
+ */
+public class GZIPMemberInputStream extends InputStream {
+    public interface MemberListener {
+        void memberStart(long compressedOffset, long offset);
+    }
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InputStream inputStream;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer;
+    private final byte[] single = new byte[1];
+    private int bufferPosition = 0;
+    private int bufferLength = 0;
+    private long sourcePosition;
+    private long position;
+    private long memberCompressedOffset;
+    private long memberOffset;
+    private int members = 0;
+    private boolean memberFinished = true;
+    private boolean eof = false;
+    private MemberListener memberListener;
+
+    public GZIPMemberInputStream(InputStream inputStream, int bufferSize) {
+        this(inputStream, bufferSize, 0, 0);
+    }
+
+    /**
+     * Input stream must be positioned at the start of a gzip member, compressedOffset and offset are offsets of this
+     * member in compressed and uncompressed file
+     */
+    public GZIPMemberInputStream(InputStream inputStream, int bufferSize, long compressedOffset, long offset) {
+        this.inputStream = inputStream;
+        this.buffer = new byte[bufferSize];
+        this.sourcePosition = compressedOffset;
+        this.position = offset;
+        this.memberCompressedOffset = compressedOffset;
+        this.memberOffset = offset;
+    }
+
+    /** Listener is called when decompression of every member starts */
+    public GZIPMemberInputStream setMemberListener(MemberListener memberListener) {
+        this.memberListener = memberListener;
+        return this;
+    }
+
+    /** Offset in compressed file of the first byte not consumed by decompressor */
+    public long getCompressedPosition() {
+        return sourcePosition - (bufferLength - bufferPosition) - inflater.getRemaining();
+    }
+
+    /** Offset in uncompressed file of the next byte to be read */
+    public long getPosition() {
+        return position;
+    }
+
+    /** Offset in compressed file of the member the last read bytes came from */
+    public long getMemberCompressedOffset() {
+        return memberCompressedOffset;
+    }
+
+    /** Offset in uncompressed file of the member the last read bytes came from */
+    public long getMemberOffset() {
+        return memberOffset;
+    }
+
+    public int getMembers() {
+        return members;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (eof)
+            return -1;
+        if (memberFinished && !nextMember())
+            return -1;
+
+        while (true) {
+            if (inflater.needsInput()) {
+                if ((bufferPosition == bufferLength) && !fill())
+                    throw new EOFException("Unexpected end of GZIP input stream");
+                inflater.setInput(buffer, bufferPosition, bufferLength - bufferPosition);
+                bufferPosition = bufferLength;
+            }
+
+            int n;
+            try {
+                n = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage() == null ? "Invalid GZIP data format" : e.getMessage());
+            }
+            if (n > 0) {
+                crc.update(b, off, n);
+                position += n;
+            }
+
+            if (inflater.finished()) {
+                bufferPosition = bufferLength - inflater.getRemaining();
+                inflater.reset();
+                readTrailer();
+                memberFinished = true;
+                if (n > 0)
+                    return n;
+                if (!nextMember())
+                    return -1;
+            } else if (n > 0)
+                return n;
+            else if (inflater.needsDictionary())
+                throw new ZipException("Unexpected GZIP dictionary request");
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] skipBuffer = new byte[(int) Math.min(n, buffer.length)];
+        long skipped = 0;
+        while (skipped < n) {
+            int length = read(skipBuffer, 0, (int) Math.min(n - skipped, skipBuffer.length));
+            if (length == -1)
+                break;
+            skipped += length;
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        inputStream.close();
+    }
+
+    private boolean nextMember() throws IOException {
+        long compressedOffset = getCompressedPosition();
+        if (!readHeader()) {
+            eof = true;
+            return false;
+        }
+        memberCompressedOffset = compressedOffset;
+        memberOffset = position;
+        memberFinished = false;
+        members++;
+        if (memberListener != null)
+            memberListener.memberStart(memberCompressedOffset, memberOffset);
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        int length = inputStream.read(buffer, 0, buffer.length);
+        if (length <= 0)
+            return false;
+        bufferPosition = 0;
+        bufferLength = length;
+        sourcePosition += length;
+        return true;
+    }
+
+    private int readUByte() throws IOException {
+        if ((bufferPosition == bufferLength) && !fill())
+            return -1;
+        return buffer[bufferPosition++] & 0xFF;
+    }
+
+    private int readUByteStrict() throws IOException {
+        int b = readUByte();
+        if (b == -1)
+            throw new EOFException("Unexpected end of GZIP input stream");
+        return b;
+    }
+
+    private int readUShort() throws IOException {
+        return readUByteStrict() | (readUByteStrict() << 8);
+    }
+
+    private long readUInt() throws IOException {
+        return ((long) readUShort()) | (((long) readUShort()) << 16);
+    }
+
+    private boolean readHeader() throws IOException {
+        int b = readUByte();
+        if (b == -1)
+            return false;
+
+        int magic = b | (readUByte() << 8);
+        if (magic != GZIP_MAGIC) {
+            // gzip ignores trailing garbage after the last member
+            if (members == 0)
+                throw new ZipException("Not in GZIP format");
+            return false;
+        }
+        if (readUByteStrict() != 8)
+            throw new ZipException("Unsupported compression method");
+        int flags = readUByteStrict();
+        // MTIME, XFL and OS
+        for (int i = 0; i < 6; i++)
+            readUByteStrict();
+        if ((flags & FEXTRA) == FEXTRA)
+            for (int i = readUShort(); i > 0; i--)
+                readUByteStrict();
+        if ((flags & FNAME) == FNAME)
+            while (readUByteStrict() != 0) ;
+        if ((flags & FCOMMENT) == FCOMMENT)
+            while (readUByteStrict() != 0) ;
+        if ((flags & FHCRC) == FHCRC)
+            readUShort();
+
+        crc.reset();
+        return true;
+    }
+
+    private void readTrailer() throws IOException {
+        long crc32 = readUInt();
+        long size = readUInt();
+        if ((crc32 != crc.getValue()) || (size != ((position - memberOffset) & 0xFFFFFFFFL)))
+            throw new ZipException("Corrupt GZIP trailer");
+    }
+}
@@ -0,0 +1,284 @@
+package com.amdocs.banextractor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.text.StringEscapeUtils;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress of one extraction. Input is counted as read from the source (compressed) and as parsed (XML), time is
+ * accounted to stages: read of the source, inflate, write of found documents, the rest is parse. Stages are timed by
+ * streams between them, so with read ahead inflate is the time the parser waits for decompressed data. Counters are
+ * updated by several extraction threads (read ahead, parser, writers) and can be read by any thread.
+ */
+@Slf4j
+public class Metrics {
+    private static final double MB = 1024 * 1024;
+
+    public interface Listener {
+        /** Called periodically while extraction runs */
+        void progress(Metrics metrics);
+
+        void completed(Metrics metrics);
+    }
+
+    /** Logs progress as key=value line and the summary as JSON */
+    public static final Listener LOG = new Listener() {
+        @Override
+        public void progress(Metrics metrics) {
+            log.info("Progress {}", metrics);
+        }
+
+        @Override
+        public void completed(Metrics metrics) {
+            log.info("Summary {}", metrics.toJson());
+        }
+    };
+
+    private interface Meter {
+        void add(long bytes, long nanos);
+    }
+
+    private final String inputFileName;
+    private volatile long size;
+    private final long started = System.nanoTime();
+    private volatile long finished = 0;
+    private final LongAdder inputBytes = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder xmlBytes = new LongAdder();
+    private final LongAdder xmlNanos = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder found = new LongAdder();
+
+    /** @param size size of input file, 0 if it is unknown, then progress and ETA aren't known */
+    public Metrics(String inputFileName, long size) {
+        this.inputFileName = inputFileName;
+        this.size = size;
+    }
+
+    public String getInputFileName() {
+        return inputFileName;
+    }
+
+    /** Bytes read from input file, compressed if the file is compressed */
+    public long getInputBytes() {
+        return inputBytes.sum();
+    }
+
+    /** Bytes of XML passed to the parser */
+    public long getXmlBytes() {
+        return xmlBytes.sum();
+    }
+
+    /** Bytes of found documents before output compression */
+    public long getOutputBytes() {
+        return outputBytes.sum();
+    }
+
+    /** Documents seen in input, documents skipped by index aren't counted */
+    public long getDocuments() {
+        return documents.sum();
+    }
+
+    public long getFoundDocuments() {
+        return found.sum();
+    }
+
+    public long getElapsed() {
+        return ((finished == 0) ? System.nanoTime() : finished) / 1000000 - started / 1000000;
+    }
+
+    /** Part of input file read, -1 if file size is unknown */
+    public double getProgress() {
+        return (size <= 0) ? -1 : Math.min(1.0, (double) getInputBytes() / size);
+    }
+
+    /** Input read in MB/s */
+    public double getInputRate() {
+        return getInputBytes() / MB * 1000 / Math.max(1, getElapsed());
+    }
+
+    /** XML parsed in MB/s */
+    public double getXmlRate() {
+        return getXmlBytes() / MB * 1000 / Math.max(1, getElapsed());
+    }
+
+    /** Seconds till the end of input at the current rate, -1 if it is unknown */
+    public long getEta() {
+        long inputBytes = this.inputBytes.sum();
+        if ((size <= 0) || (inputBytes == 0))
+            return -1;
+        return (long) ((size - Math.min(size, inputBytes)) * (double) getElapsed() / inputBytes / 1000);
+    }
+
+    public long getReadTime() {
+        return readNanos.sum() / 1000000;
+    }
+
+    public long getInflateTime() {
+        return Math.max(0, xmlNanos.sum() - readNanos.sum()) / 1000000;
+    }
+
+    public long getWriteTime() {
+        return writeNanos.sum() / 1000000;
+    }
+
+    public long getParseTime() {
+        return Math.max(0, getElapsed() - Math.max(xmlNanos.sum(), readNanos.sum()) / 1000000 - getWriteTime());
+    }
+
+    void setSize(long size) {
+        this.size = size;
+    }
+
+    void finish() {
+        finished = System.nanoTime();
+    }
+
+    void document() {
+        documents.increment();
+    }
+
+    void found() {
+        documents.increment();
+        found.increment();
+    }
+
+    /** Source of the input file */
+    InputStream input(InputStream inputStream) {
+        return new MeteredInputStream(inputStream, (bytes, nanos) -> {
+            inputBytes.add(bytes);
+            readNanos.add(nanos);
+        });
+    }
+
+    /** Decompressed input, its time includes the time of source */
+    InputStream xml(InputStream inputStream) {
+        return new MeteredInputStream(inputStream, (bytes, nanos) -> {
+            xmlBytes.add(bytes);
+            xmlNanos.add(nanos);
+        });
+    }
+
+    OutputStream output(OutputStream outputStream) {
+        return new MeteredOutputStream(outputStream, this::written);
+    }
+
+    void written(long bytes, long nanos) {
+        outputBytes.add(bytes);
+        writeNanos.add(nanos);
+    }
+
+    /** Input skipped up to indexed document, it is inflated if input is compressed */
+    void skipped(long nanos) {
+        xmlNanos.add(nanos);
+    }
+
+    /** Document copied from input file to output file by the kernel */
+    void transferred(long bytes, long nanos) {
+        inputBytes.add(bytes);
+        xmlBytes.add(bytes);
+        written(bytes, nanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "file=%s progress=%s input=%.1fMb xml=%.1fMb documents=%d found=%d rate=%.1fMb/s " +
+                        "xmlRate=%.1fMb/s eta=%s read=%dms inflate=%dms parse=%dms write=%dms",
+                inputFileName, (size <= 0) ? "unknown" : String.format(Locale.ROOT, "%.1f%%", getProgress() * 100),
+                getInputBytes() / MB, getXmlBytes() / MB, getDocuments(), getFoundDocuments(), getInputRate(), getXmlRate(),
+                (getEta() < 0) ? "unknown" : getEta() + "s", getReadTime(), getInflateTime(), getParseTime(), getWriteTime());
+    }
+
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"file\":\"%s\",\"size\":%d,\"elapsedMs\":%d,\"inputBytes\":%d,\"xmlBytes\":%d," +
+                        "\"outputBytes\":%d,\"documents\":%d,\"found\":%d,\"inputMbPerSec\":%.2f,\"xmlMbPerSec\":%.2f," +
+                        "\"stagesMs\":{\"read\":%d,\"inflate\":%d,\"parse\":%d,\"write\":%d}}",
+                StringEscapeUtils.escapeJson(inputFileName), size, getElapsed(), getInputBytes(), getXmlBytes(), getOutputBytes(), getDocuments(),
+                getFoundDocuments(), getInputRate(), getXmlRate(), getReadTime(), getInflateTime(), getParseTime(), getWriteTime());
+    }
+
+    private static class MeteredInputStream extends FilterInputStream {
+        private final Meter meter;
+
+        MeteredInputStream(InputStream inputStream, Meter meter) {
+            super(inputStream);
+            this.meter = meter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long started = System.nanoTime();
+            int b = in.read();
+            meter.add((b == -1) ? 0 : 1, System.nanoTime() - started);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long started = System.nanoTime();
+            int length = in.read(b, off, len);
+            meter.add(Math.max(0, length), System.nanoTime() - started);
+            return length;
+        }
+
+        /** Skip of file is seek, skipped bytes aren't read */
+        @Override
+        public long skip(long n) throws IOException {
+            long started = System.nanoTime();
+            long skipped = in.skip(n);
+            meter.add(0, System.nanoTime() - started);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static class MeteredOutputStream extends FilterOutputStream {
+        private final Meter meter;
+
+        MeteredOutputStream(OutputStream outputStream, Meter meter) {
+            super(outputStream);
+            this.meter = meter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long started = System.nanoTime();
+            out.write(b);
+            meter.add(1, System.nanoTime() - started);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long started = System.nanoTime();
+            out.write(b, off, len);
+            meter.add(len, System.nanoTime() - started);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long started = System.nanoTime();
+            out.flush();
+            meter.add(0, System.nanoTime() - started);
+        }
+
+        @Override
+        public void close() throws IOException {
+            long started = System.nanoTime();
+            out.close();
+            meter.add(0, System.nanoTime() - started);
+        }
+    }
+}
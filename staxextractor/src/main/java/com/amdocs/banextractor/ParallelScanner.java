@@ -0,0 +1,184 @@
+package com.amdocs.banextractor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Scans plain XML file by ranges on the fork-join pool. File is memory mapped by windows, every range owns documents
+ * which start tag begins inside the range, it starts scanning from the first document start tag and finishes the
+ * last document even if it goes beyond the range. So every document is scanned exactly once and results are the same
+ * as for sequential scan.
+ */
+@Slf4j
+public class ParallelScanner {
+    private static final byte[] START_TAG = "<att:MixedBillService".getBytes(StandardCharsets.US_ASCII);
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+    private static final long MIN_RANGE_SIZE = 16L * 1024 * 1024;
+
+    private final Path path;
+    private final Set<String> BANs;
+    private final boolean allMatches;
+    private final int parallelism;
+
+    /**
+     * @param allMatches if false only the first document of every BAN is returned, like sequential extraction does
+     */
+    public ParallelScanner(Path path, Collection<String> BANs, boolean allMatches, int parallelism) {
+        this.path = path;
+        this.BANs = new HashSet<>(BANs);
+        this.allMatches = allMatches;
+        this.parallelism = parallelism;
+    }
+
+    /** Returns found documents ordered by offset */
+    public List<BANIndex.Entry> scan() throws IOException {
+        long started = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long rangeSize = Math.max(MIN_RANGE_SIZE, size / (parallelism * 4L));
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            List<BANIndex.Entry> entries;
+            try {
+                entries = pool.invoke(new RangeTask(channel, 0, size, rangeSize));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+            }
+
+            if (!allMatches) {
+                Set<String> found = new HashSet<>();
+                entries.removeIf(entry -> !found.add(entry.getBAN()));
+            }
+            log.info("File has been scanned in {} ms by {} threads, documents found={}", System.currentTimeMillis() - started, parallelism, entries.size());
+            return entries;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(length, channel.size() - position));
+    }
+
+    /** Returns offset of the first document start tag at or after from and before to, or -1 */
+    private static long findDocumentStart(FileChannel channel, long from, long to) throws IOException {
+        long size = channel.size();
+        for (long position = from; position < to; position += WINDOW_SIZE) {
+            // windows overlap, so the tag on the window boundary isn't missed
+            MappedByteBuffer buffer = map(channel, position, WINDOW_SIZE + START_TAG.length);
+            int limit = (int) Math.min(buffer.limit(), to - position + START_TAG.length);
+            for (int i = 0; (i < limit - START_TAG.length) && (position + i < to); i++)
+                if (isStartTag(buffer, i))
+                    return position + i;
+            if (position + limit >= size)
+                break;
+        }
+        return -1;
+    }
+
+    private static boolean isStartTag(MappedByteBuffer buffer, int i) {
+        for (int j = 0; j < START_TAG.length; j++)
+            if (buffer.get(i + j) != START_TAG[j])
+                return false;
+        byte next = buffer.get(i + START_TAG.length);
+        return (next == '>') || (next == '/') || (next == ' ') || (next == '\n') || (next == '\r') || (next == '\t');
+    }
+
+    private class RangeTask extends RecursiveTask<List<BANIndex.Entry>> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final long rangeSize;
+
+        RangeTask(FileChannel channel, long start, long end, long rangeSize) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.rangeSize = rangeSize;
+        }
+
+        @Override
+        protected List<BANIndex.Entry> compute() {
+            if (end - start > rangeSize) {
+                long middle = start + (end - start) / 2;
+                RangeTask left = new RangeTask(channel, start, middle, rangeSize);
+                left.fork();
+                List<BANIndex.Entry> entries = new RangeTask(channel, middle, end, rangeSize).compute();
+                List<BANIndex.Entry> result = left.join();
+                result.addAll(entries);
+                return result;
+            }
+
+            try {
+                return scanRange();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Range " + start + "-" + end + " can't be scanned", e);
+            }
+        }
+
+        private List<BANIndex.Entry> scanRange() throws IOException {
+            long from = findDocumentStart(channel, start, end);
+            if (from == -1)
+                return new ArrayList<>();
+
+            RangeListener listener = new RangeListener(end);
+            DocumentScanner scanner = new DocumentScanner(listener).setPosition(from);
+            listener.scanner = scanner;
+
+            long size = channel.size();
+            for (long position = from; (position < size) && !scanner.isStopped(); position += WINDOW_SIZE)
+                scanner.scan(map(channel, position, WINDOW_SIZE));
+            return listener.entries;
+        }
+    }
+
+    private class RangeListener implements DocumentScanner.Listener {
+        private final List<BANIndex.Entry> entries = new ArrayList<>();
+        private final long end;
+        private DocumentScanner scanner;
+        private long documentOffset;
+        private String BAN;
+        private boolean BANChecked;
+
+        RangeListener(long end) {
+            this.end = end;
+        }
+
+        @Override
+        public void documentStart(long offset) {
+            // the document belongs to the next range
+            if (offset >= end)
+                scanner.stop();
+            documentOffset = offset;
+            BAN = null;
+            BANChecked = false;
+        }
+
+        /** The first TITAN_BAN of the document decides, like in sequential extraction */
+        @Override
+        public void titanBAN(String BAN) {
+            if (BANChecked)
+                return;
+            BANChecked = true;
+            if (BANs.contains(BAN))
+                this.BAN = BAN;
+        }
+
+        @Override
+        public void documentEnd(long offset) {
+            if (BAN != null)
+                entries.add(new BANIndex.Entry(BAN, documentOffset, offset - documentOffset, documentOffset, documentOffset));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.amdocs.banextractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Passes through only att:MixedBillService documents with requested TITAN_BAN, all other documents are dropped on the
+ * byte level by {@link DocumentFilter} and never get to XML parser. Documents are copied byte by byte and wrapped into
+ * a root element, so the result is well-formed XML. XML declaration of input is put before the root element, so
+ * documents are decoded by the encoding of input. Stream ends as soon as all BANs are passed. Output of the filter
+ * is kept in staging buffer until it is read, so memory usage is bounded even if the found document is big.
+ */
+public class PrefilterInputStream extends InputStream {
+    static final int MAX_DECLARATION_SIZE = 1024;
+    private static final byte[] DECLARATION_START = "<?xml".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEADER = "<banextractor>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FOOTER = "</banextractor>".getBytes(StandardCharsets.UTF_8);
+
+    private final InputStream inputStream;
+    private final DocumentFilter filter;
+    private final byte[] chunk;
+    private final byte[] single = new byte[1];
+    private final StagingBuffer out;
+    private InputStream outInputStream;
+    private boolean started = false;
+    private boolean eof = false;
+
+    /**
+     * @param skippedBAN is called for TITAN_BAN of every dropped document, can be null
+     */
+    public PrefilterInputStream(InputStream inputStream, Collection<String> BANs, int bufferSize, Consumer<String> skippedBAN, int stagingThreshold) {
+        this.inputStream = inputStream;
+        this.chunk = new byte[bufferSize];
+        this.out = new StagingBuffer(stagingThreshold);
+        this.filter = new DocumentFilter(BANs, new DocumentFilter.Sink() {
+            @Override
+            public OutputStream documentStart(String BAN) {
+                return out;
+            }
+
+            @Override
+            public void documentEnd(String BAN) {
+            }
+        }, skippedBAN, stagingThreshold);
+    }
+
+    /** Reads start of input till buffer is full or input ends, returns the number of bytes read */
+    static int readProlog(InputStream inputStream, byte[] prolog) throws IOException {
+        int length = 0;
+        int n;
+        while ((length < prolog.length) && ((n = inputStream.read(prolog, length, prolog.length - length)) != -1))
+            length += n;
+        return length;
+    }
+
+    /** XML declaration the input starts with, byte order mark is skipped, empty if there is no declaration */
+    static byte[] getDeclaration(byte[] prolog, int length) {
+        int from = ((length >= 3) && (prolog[0] == (byte) 0xEF) && (prolog[1] == (byte) 0xBB) && (prolog[2] == (byte) 0xBF)) ? 3 : 0;
+        int i = from + DECLARATION_START.length;
+        if ((i >= length) || !Arrays.equals(Arrays.copyOfRange(prolog, from, i), DECLARATION_START) ||
+                ((prolog[i] != ' ') && (prolog[i] != '\t') && (prolog[i] != '\r') && (prolog[i] != '\n')))
+            return new byte[0];
+        for (; i < length - 1; i++)
+            if ((prolog[i] == '?') && (prolog[i + 1] == '>'))
+                return Arrays.copyOfRange(prolog, from, i + 2);
+        return new byte[0];
+    }
+
+    /** Checkpoint is told about the end of every document and whether it is passed or dropped */
+    public PrefilterInputStream setCheckpoint(Checkpoint checkpoint) {
+        filter.setCheckpoint(checkpoint);
+        return this;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (true) {
+            if (outInputStream != null) {
+                int length = outInputStream.read(b, off, len);
+                if (length != -1)
+                    return length;
+                outInputStream.close();
+                outInputStream = null;
+                out.reset();
+            }
+            if (eof)
+                return -1;
+            nextChunk();
+            outInputStream = out.getInputStream();
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (outInputStream == null) ? 0 : outInputStream.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (outInputStream != null)
+            outInputStream.close();
+        out.close();
+        filter.close();
+        inputStream.close();
+    }
+
+    private void nextChunk() throws IOException {
+        if (!started) {
+            start();
+            return;
+        }
+        int length = filter.isFinished() ? -1 : inputStream.read(chunk);
+        if (length == -1) {
+            out.write(FOOTER, 0, FOOTER.length);
+            eof = true;
+        } else
+            filter.process(chunk, length);
+    }
+
+    /** Root element gets XML declaration of input, bytes read to find it are filtered as usual */
+    private void start() throws IOException {
+        started = true;
+        byte[] prolog = new byte[Math.max(MAX_DECLARATION_SIZE, chunk.length)];
+        int length = readProlog(inputStream, prolog);
+        byte[] declaration = getDeclaration(prolog, length);
+        out.write(declaration, 0, declaration.length);
+        out.write(HEADER, 0, HEADER.length);
+        if (length > 0)
+            filter.process(prolog, length);
+    }
+}
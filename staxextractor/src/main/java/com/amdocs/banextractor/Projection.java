@@ -0,0 +1,291 @@
+package com.amdocs.banextractor;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Selected values of documents written as CSV or JSON Lines instead of XML. Fields of the document are written as one
+ * record per document, with row element every row is a record with fields of the row and fields of its document,
+ * document without rows is one record with empty row fields.
+ * <pre>
+ * fields:     Metadata/TITAN_BAN,Metadata/STMT_DATE,total=//TotalCurrentCharges
+ * rows:       //Calls/Call
+ * row fields: Date,PhoneNumber,AirtimeCharges,CD_ITEM/DATE
+ * </pre>
+ * Path of field is relative to att:MixedBillService, path of row field is relative to row element, // means any depth,
+ * names are compared with prefix as they are in the file. Column is named by the last name of the path or by name
+ * before '='. The first element of the path gives the value, absent value is empty in CSV and null in JSON. Records
+ * are written as soon as they end, so row has only fields of the document found before the row. Row can be held till
+ * it is known whether the document is wanted, held row gets fields of the document found till it is written.
+ */
+public class Projection {
+    public enum Format {
+        CSV(".csv"), JSONL(".jsonl");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private final Format format;
+    private Path[] fields = new Path[0];
+    private Path rows;
+    private Path[] rowFields = new Path[0];
+
+    public Projection(Format format) {
+        this.format = format;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /** Comma separated paths of document fields */
+    public Projection setFields(String fields) {
+        this.fields = parse(fields);
+        return this;
+    }
+
+    /** Every element of rows path is a record with row fields, their paths are comma separated */
+    public Projection setRows(String rows, String rowFields) {
+        this.rows = (rows == null) ? null : new Path(rows.trim(), rows.trim());
+        this.rowFields = parse(rowFields);
+        return this;
+    }
+
+    private static Path[] parse(String s) {
+        List<Path> paths = new ArrayList<>();
+        if (s != null)
+            for (String field : s.split(","))
+                if (!field.trim().isEmpty()) {
+                    int i = field.indexOf('=');
+                    paths.add((i == -1) ? new Path(null, field.trim()) : new Path(field.substring(0, i).trim(), field.substring(i + 1).trim()));
+                }
+        return paths.toArray(new Path[0]);
+    }
+
+    public List<String> getColumns() {
+        List<String> columns = new ArrayList<>();
+        for (Path field : fields)
+            columns.add(field.name);
+        for (Path field : rowFields)
+            columns.add(field.name);
+        return columns;
+    }
+
+    /** CSV header, nothing for JSON Lines */
+    public void writeHeader(Writer writer) throws IOException {
+        if (format != Format.CSV)
+            return;
+        List<String> columns = getColumns();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0)
+                writer.write(',');
+            writer.write(StringEscapeUtils.escapeCsv(columns.get(i)));
+        }
+        writer.write('\n');
+    }
+
+    public Matcher matcher() {
+        return new Matcher();
+    }
+
+    @Override
+    public String toString() {
+        return format + " of " + getColumns();
+    }
+
+    private static class Path {
+        final String name;
+        final String[] names;
+        final boolean anyDepth;
+
+        Path(String name, String path) {
+            anyDepth = path.startsWith("//");
+            names = path.replaceFirst("^/+", "").split("/");
+            if (names[0].isEmpty())
+                throw new IllegalArgumentException("Projection has empty element path");
+            this.name = (name == null) ? names[names.length - 1] : name;
+        }
+
+        /** Path ends with the element at depth, from is depth of the element path is relative to */
+        boolean matches(String[] stack, int from, int depth) {
+            int length = depth - from;
+            if ((length < names.length) || (!anyDepth && (length != names.length)))
+                return false;
+            for (int i = 1; i <= names.length; i++)
+                if (!stack[depth - i].equals(names[names.length - i]))
+                    return false;
+            return true;
+        }
+    }
+
+    /** Values of the current document and row, it is fed by parser events, state of one parsing run */
+    public class Matcher {
+        private String[] stack = new String[16];
+        private int depth = 0;
+        private int rowDepth = -1;
+        private boolean rowEnded;
+        private final String[] values = new String[fields.length + rowFields.length];
+        private final int[] valueDepths = new int[values.length];
+        private final StringBuilder[] builders = new StringBuilder[values.length];
+        private int capturing = 0;
+        private final String[] keys = new String[values.length];
+        private final List<String[]> held = new ArrayList<>();
+
+        private Matcher() {
+            List<String> columns = getColumns();
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = "\"" + StringEscapeUtils.escapeJson(columns.get(i)) + "\":";
+        }
+
+        /** Start of att:MixedBillService */
+        public void startDocument() {
+            depth = 0;
+            rowDepth = -1;
+            rowEnded = false;
+            capturing = 0;
+            held.clear();
+            Arrays.fill(values, null);
+            Arrays.fill(builders, null);
+        }
+
+        public void startElement(String name) {
+            if (depth == stack.length)
+                stack = Arrays.copyOf(stack, depth * 2);
+            stack[depth++] = name;
+
+            for (int i = 0; i < fields.length; i++)
+                if ((values[i] == null) && (builders[i] == null) && fields[i].matches(stack, 0, depth))
+                    capture(i);
+            if (rowDepth == -1) {
+                if ((rows != null) && rows.matches(stack, 0, depth)) {
+                    rowDepth = depth;
+                    Arrays.fill(values, fields.length, values.length, null);
+                }
+            } else
+                for (int i = 0; i < rowFields.length; i++) {
+                    int j = fields.length + i;
+                    if ((values[j] == null) && (builders[j] == null) && rowFields[i].matches(stack, rowDepth, depth))
+                        capture(j);
+                }
+        }
+
+        private void capture(int i) {
+            builders[i] = new StringBuilder();
+            valueDepths[i] = depth;
+            capturing++;
+        }
+
+        /** Text is taken only while some field is captured, so other text doesn't need to be copied */
+        public boolean isCapturing() {
+            return capturing > 0;
+        }
+
+        public void characters(char[] text, int start, int length) {
+            for (StringBuilder builder : builders)
+                if (builder != null)
+                    builder.append(text, start, length);
+        }
+
+        /** Returns true if row ends, then the row is ready to be written */
+        public boolean endElement() {
+            if (capturing > 0)
+                for (int i = 0; i < builders.length; i++)
+                    if ((builders[i] != null) && (valueDepths[i] == depth)) {
+                        values[i] = builders[i].toString().trim();
+                        builders[i] = null;
+                        capturing--;
+                    }
+            boolean rowEnd = depth == rowDepth;
+            if (rowEnd) {
+                rowDepth = -1;
+                rowEnded = true;
+                // field of the row isn't captured after its end
+                for (int i = fields.length; i < builders.length; i++)
+                    if (builders[i] != null) {
+                        builders[i] = null;
+                        capturing--;
+                    }
+            }
+            if (depth > 0)
+                depth--;
+            return rowEnd;
+        }
+
+        /** Returns true if document is ready to be written, document with rows has been written by rows */
+        public boolean endDocument() {
+            if (rowEnded)
+                return false;
+            Arrays.fill(values, fields.length, values.length, null);
+            return true;
+        }
+
+        /** Name of the current element, null if it is the document element */
+        public String current() {
+            return (depth == 0) ? null : stack[depth - 1];
+        }
+
+        /** Keeps the row which has ended till it is written or dropped */
+        public void hold() {
+            held.add(values.clone());
+        }
+
+        /** Writes held rows with fields of the document found so far */
+        public void writeHeld(Writer writer) throws IOException {
+            for (String[] row : held) {
+                for (int i = 0; i < fields.length; i++)
+                    if (row[i] == null)
+                        row[i] = values[i];
+                write(writer, row);
+            }
+            held.clear();
+        }
+
+        public void dropHeld() {
+            held.clear();
+        }
+
+        public void write(Writer writer) throws IOException {
+            write(writer, values);
+        }
+
+        private void write(Writer writer, String[] values) throws IOException {
+            if (format == Format.CSV) {
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0)
+                        writer.write(',');
+                    if (values[i] != null)
+                        writer.write(StringEscapeUtils.escapeCsv(values[i]));
+                }
+            } else {
+                writer.write('{');
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0)
+                        writer.write(',');
+                    writer.write(keys[i]);
+                    if (values[i] == null)
+                        writer.write("null");
+                    else {
+                        writer.write('"');
+                        writer.write(StringEscapeUtils.escapeJson(values[i]));
+                        writer.write('"');
+                    }
+                }
+                writer.write('}');
+            }
+            writer.write('\n');
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.amdocs.banextractor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads no more than length bytes from the underlying stream. Closing doesn't close the underlying stream, so it can
+ * be used to read several ranges one after another.
+ */
+public class RangeInputStream extends FilterInputStream {
+    private long remaining;
+
+    public RangeInputStream(InputStream inputStream, long length) {
+        super(inputStream);
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0)
+            return -1;
+        int b = in.read();
+        if (b != -1)
+            remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0)
+            return -1;
+        int length = in.read(b, off, (int) Math.min(len, remaining));
+        if (length > 0)
+            remaining -= length;
+        return length;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+    }
+}
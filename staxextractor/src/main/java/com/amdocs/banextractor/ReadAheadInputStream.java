@@ -0,0 +1,197 @@
+package com.amdocs.banextractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Reads the underlying stream on its own thread into a bounded ring of buffers, so reading and decompression of input
+ * overlap with parsing. Filled buffers are handed to the reader and returned to the ring when they are consumed, no
+ * more than buffers * bufferSize bytes are read ahead. Exception of the underlying stream is thrown to the reader.
+ * Instead of the stream the thread can run a producer which writes the bytes, like SFTP transfer does.
+ */
+public class ReadAheadInputStream extends InputStream {
+    public static final int DEFAULT_BUFFERS = 4;
+
+    public interface Producer {
+        /** Writes all bytes of the stream, closed tells that the reader has closed the stream and writing can be stopped */
+        void writeTo(OutputStream outputStream, BooleanSupplier closed) throws Exception;
+    }
+
+    private static class Chunk {
+        private final byte[] bytes;
+        private int length;
+
+        Chunk(int size) {
+            bytes = new byte[size];
+        }
+    }
+
+    private static final Chunk END = new Chunk(0);
+
+    private final InputStream inputStream;
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> filled;
+    private final Thread thread;
+    private final byte[] single = new byte[1];
+    private volatile boolean closed = false;
+    private volatile IOException exception;
+    private Chunk chunk;
+    private int position = 0;
+
+    public ReadAheadInputStream(InputStream inputStream, int bufferSize, int buffers) {
+        this(inputStream, null, bufferSize, buffers);
+    }
+
+    public ReadAheadInputStream(Producer producer, int bufferSize, int buffers) {
+        this(null, producer, bufferSize, buffers);
+    }
+
+    private ReadAheadInputStream(InputStream inputStream, Producer producer, int bufferSize, int buffers) {
+        this.inputStream = inputStream;
+        this.free = new ArrayBlockingQueue<>(buffers);
+        // every buffer and the end of stream fit, so the thread never waits for the reader to put a buffer
+        this.filled = new ArrayBlockingQueue<>(buffers + 1);
+        for (int i = 0; i < buffers; i++)
+            free.add(new Chunk(bufferSize));
+
+        thread = new Thread((producer == null) ? this::readAhead : () -> produce(producer), "banextractor-read-ahead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void readAhead() {
+        try {
+            while (!closed) {
+                Chunk chunk = free.take();
+                chunk.length = 0;
+                int length = 0;
+                while ((chunk.length < chunk.bytes.length) && ((length = inputStream.read(chunk.bytes, chunk.length, chunk.bytes.length - chunk.length)) != -1))
+                    chunk.length += length;
+                if (chunk.length > 0)
+                    filled.add(chunk);
+                if (length == -1)
+                    break;
+            }
+        } catch (IOException e) {
+            exception = e;
+        } catch (InterruptedException e) {
+            exception = new InterruptedIOException("Reading ahead has been interrupted");
+        }
+        filled.add(END);
+    }
+
+    private void produce(Producer producer) {
+        ChunkOutputStream outputStream = new ChunkOutputStream();
+        try {
+            producer.writeTo(outputStream, () -> closed);
+            outputStream.flush();
+        } catch (Exception e) {
+            if (!closed)
+                exception = (e instanceof IOException) ? (IOException) e : new IOException(e.getLocalizedMessage(), e);
+        }
+        filled.add(END);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if ((chunk == null) || ((chunk != END) && (position == chunk.length))) {
+            if (chunk != null)
+                free.add(chunk);
+            try {
+                chunk = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Reading ahead has been interrupted");
+            }
+            position = 0;
+        }
+        if (chunk == END) {
+            if (exception != null)
+                throw new IOException(exception.getLocalizedMessage(), exception);
+            return -1;
+        }
+
+        int length = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk.bytes, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return ((chunk == null) || (chunk == END)) ? 0 : chunk.length - position;
+    }
+
+    /** Stops the thread after the buffer being read or written, the rest of input isn't read */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        // return all buffers to the ring, so the thread isn't blocked and sees that the stream is closed
+        if ((chunk != null) && (chunk != END))
+            free.add(chunk);
+        chunk = END;
+        for (Chunk c; (c = filled.poll()) != null; )
+            if (c != END)
+                free.add(c);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (inputStream != null)
+            inputStream.close();
+    }
+
+    /** Writes producer bytes into buffers of the ring, bytes written after close are dropped */
+    private class ChunkOutputStream extends OutputStream {
+        private Chunk chunk;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while ((len > 0) && !closed) {
+                if (chunk == null) {
+                    try {
+                        chunk = free.take();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Reading ahead has been interrupted");
+                    }
+                    chunk.length = 0;
+                }
+                int length = Math.min(len, chunk.bytes.length - chunk.length);
+                System.arraycopy(b, off, chunk.bytes, chunk.length, length);
+                chunk.length += length;
+                off += length;
+                len -= length;
+                if (chunk.length == chunk.bytes.length)
+                    flush();
+            }
+        }
+
+        @Override
+        public void flush() {
+            if ((chunk != null) && (chunk.length > 0)) {
+                filled.add(chunk);
+                chunk = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.amdocs.banextractor;
+
+import com.sshtools.ssh.ChannelOpenException;
+import com.sshtools.ssh.SshClient;
+import com.sshtools.ssh.SshException;
+import com.sshtools.ssh.SshSession;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+/**
+ * Scans bill extract on SSH server by shell command, only documents with requested TITAN_BAN are sent back, so network
+ * I/O is about the size of the result. Command needs gzip and awk with regular expression record separator (gawk,
+ * mawk, busybox). Output of the command is gzipped XML with root element banextractor, it is parsed locally like any
+ * other input. The first document of every BAN is sent, command stops as soon as all BANs are found.
+ * <p>
+ * Exit codes of all commands of the pipe are checked (by POSIX shell, pipefail isn't everywhere), gzip stopped by
+ * SIGPIPE when awk has found all BANs isn't an error. Failed command, missing file or tool is reported by
+ * IOException at the end of the stream, so it isn't taken for the file without the BANs.
+ */
+@Slf4j
+public class RemoteFilter {
+    private static final Pattern BAN_PATTERN = Pattern.compile("[A-Za-z0-9_.-]+");
+    private static final int SIGPIPE_EXIT_CODE = 141;
+    private static final String AWK_SCRIPT =
+            "BEGIN { RS = \"</att:MixedBillService>\"; n = split(bans, wanted, \",\"); for (i = 1; i <= n; i++) pending[wanted[i]] = 1; printf \"<banextractor>\" }\n" +
+            "{\n" +
+            "    start = index($0, \"<att:MixedBillService\"); if (start == 0) next\n" +
+            "    tag = match($0, /<TITAN_BAN[ \\t\\r\\n>]/); if (tag == 0) next\n" +
+            "    ban = substr($0, tag); ban = substr(ban, index(ban, \">\") + 1); ban = substr(ban, 1, index(ban, \"<\") - 1); gsub(/[ \\t\\r\\n]/, \"\", ban)\n" +
+            "    if (ban in pending) { printf \"%s%s\", substr($0, start), RS; delete pending[ban]; if (--n == 0) exit }\n" +
+            "}\n" +
+            "END { printf \"</banextractor>\" }";
+
+    private RemoteFilter() {
+    }
+
+    /**
+     * Shell command for plain or gzipped file, BANs are passed to awk as is, so they are checked first. Every command
+     * of the pipe writes its exit code to descriptor 3, the exit code of the whole command is the first failed one.
+     */
+    static String getCommand(String fileName, Collection<String> BANs) {
+        for (String BAN : BANs)
+            if (!BAN_PATTERN.matcher(BAN).matches())
+                throw new IllegalArgumentException("BAN " + BAN + " can't be passed to remote command");
+
+        return "{ { { gzip -dcf " + quote(fileName) + "; echo $? >&3; } | " +
+                "{ awk -v bans=" + StringUtils.join(BANs, ',') + " " + quote(AWK_SCRIPT) + "; echo $? >&3; } | " +
+                "{ gzip -1 -c; echo $? >&3; } >&4; } 3>&1 | " +
+                "{ s=0; while read c; do [ \"$c\" = 0 ] || [ \"$c\" = " + SIGPIPE_EXIT_CODE + " ] || [ $s != 0 ] || s=$c; done; exit $s; }; } 4>&1";
+    }
+
+    private static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    /** Starts the command in new session, closing the stream closes the session, end of the stream checks exit code */
+    public static InputStream open(SshClient sshClient, String fileName, Collection<String> BANs) throws IOException {
+        String command = getCommand(fileName, BANs);
+        try {
+            SshSession session = sshClient.openSessionChannel();
+            log.info("Filtering {} on SSH server", fileName);
+            log.debug("Remote command: {}", command);
+            if (!session.executeCommand(command)) {
+                session.close();
+                throw new IOException("Remote command can't be executed");
+            }
+            return new FilterInputStream(session.getInputStream()) {
+                private boolean checked = false;
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b == -1)
+                        check();
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int length = super.read(b, off, len);
+                    if (length == -1)
+                        check();
+                    return length;
+                }
+
+                private void check() throws IOException {
+                    if (!checked) {
+                        checked = true;
+                        checkExitCode(session);
+                    }
+                }
+
+                @Override
+                public void close() {
+                    session.close();
+                }
+            };
+        } catch (SshException | ChannelOpenException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** Output has ended, errors of gzip and awk are in stderr, exit code comes with the end of the session */
+    private static void checkExitCode(SshSession session) throws IOException {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        try (InputStream inputStream = session.getStderrInputStream()) {
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1)
+                errors.write(buffer, 0, length);
+        }
+        String message = new String(errors.toByteArray(), StandardCharsets.UTF_8).trim();
+
+        // exit status comes before the channel is closed, messages are processed while it is closing
+        session.close();
+        int exitCode = session.exitCode();
+        if ((exitCode != 0) && ((exitCode != SshSession.EXITCODE_NOT_RECEIVED) || !message.isEmpty()))
+            throw new IOException("Remote command failed" + ((exitCode == SshSession.EXITCODE_NOT_RECEIVED) ? "" : " with exit code " + exitCode) +
+                    (message.isEmpty() ? "" : ": " + message));
+        if (!message.isEmpty())
+            log.warn("Remote command: {}", message);
+    }
+}
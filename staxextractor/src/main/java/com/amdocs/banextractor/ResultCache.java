@@ -0,0 +1,308 @@
+package com.amdocs.banextractor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Recently extracted documents, keyed by input file, its size and modification time, output mode and BAN, so changed
+ * input file is never served from the cache. Documents are kept LZ4 compressed in memory or in files of the cache
+ * directory, least recently used documents are evicted when the cache exceeds its size. Directory cache survives
+ * restart: modification time of a file is the time of its last use, stats of remote files are kept in the directory
+ * too. The cache can be shared by concurrent extractions.
+ */
+@Slf4j
+public class ResultCache {
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    public static final long DEFAULT_STAT_TTL = 10000;
+    private static final String EXTENSION = ".lz4";
+    private static final String STAT_EXTENSION = ".stat";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static class Entry {
+        private final long length;
+        private final byte[] data;
+
+        Entry(long length, byte[] data) {
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+    private static class Stat {
+        private final long size;
+        private final long modified;
+        private final long time;
+
+        Stat(long size, long modified, long time) {
+            this.size = size;
+            this.modified = modified;
+            this.time = time;
+        }
+    }
+
+    private final long maxBytes;
+    private Path directory;
+    private long statTtl = DEFAULT_STAT_TTL;
+    // access ordered, the first entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private final Map<String, Stat> stats = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** Documents are kept in files of the directory, documents cached by previous runs are reused */
+    public ResultCache setDirectory(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).collect(Collectors.toList());
+        }
+        Map<Path, Long> modified = new HashMap<>();
+        for (Path file : files)
+            modified.put(file, Files.getLastModifiedTime(file).toMillis());
+        files.sort(Comparator.comparing(modified::get));
+
+        synchronized (this) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                add(name.substring(0, name.length() - EXTENSION.length()), new Entry(Files.size(file), null));
+            }
+        }
+        log.info("Result cache {} has {} documents, {} bytes", directory, entries.size(), size);
+        return this;
+    }
+
+    /** Size and modification time of remote file are trusted for the time to live without asking the server */
+    public ResultCache setStatTtl(long statTtl) {
+        this.statTtl = statTtl;
+        return this;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Returns size and modification time of the file if they were put not longer than TTL ago, by this or previous run */
+    public long[] getStat(String file) {
+        Stat stat = stats.get(file);
+        if ((stat == null) && (directory != null))
+            stat = readStat(file);
+        if ((stat == null) || (System.currentTimeMillis() - stat.time > statTtl))
+            return null;
+        return new long[]{stat.size, stat.modified};
+    }
+
+    public void putStat(String file, long size, long modified) throws IOException {
+        Stat stat = new Stat(size, modified, System.currentTimeMillis());
+        stats.put(file, stat);
+        if (directory != null)
+            write(directory.resolve(hash(file) + STAT_EXTENSION), (stat.size + " " + stat.modified + " " + stat.time).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private Stat readStat(String file) {
+        Path path = directory.resolve(hash(file) + STAT_EXTENSION);
+        if (!Files.exists(path))
+            return null;
+        try {
+            String[] values = new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).split(" ");
+            return new Stat(Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2]));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Stat of {} can't be read: {}", file, e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /** Key of the document, verbatim and parsed documents differ */
+    public static String getKey(String file, long size, long modified, boolean verbatim, String BAN) {
+        return hash(file + '\n' + size + '\n' + modified + '\n' + verbatim + '\n' + BAN);
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            return String.format("%040x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Writes cached document to the output, returns false if there is no such document */
+    public boolean get(String key, Extractor.Output output, String BAN) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        byte[] data = (entry == null) ? null : (entry.data != null) ? entry.data : read(key);
+        if (data == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        hits.incrementAndGet();
+        try (InputStream inputStream = StandardCodec.LZ4.decompress(new ByteArrayInputStream(data), BUFFER_SIZE);
+             OutputStream outputStream = output.open(BAN)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1)
+                outputStream.write(buffer, 0, length);
+        }
+        return true;
+    }
+
+    /** Reads cached document, its file is touched, so eviction by next runs knows it has been used */
+    private byte[] read(String key) {
+        try {
+            byte[] data = Files.readAllBytes(getFile(key));
+            Files.setLastModifiedTime(getFile(key), FileTime.fromMillis(System.currentTimeMillis()));
+            return data;
+        } catch (IOException e) {
+            // deleted by somebody else
+            log.warn("Cached document {} can't be read: {}", key, e.getLocalizedMessage());
+            remove(key);
+            return null;
+        }
+    }
+
+    /** Returns stream writing the document to the output stream and to the cache, the document is cached by commit */
+    public Capture capture(String key, OutputStream outputStream) throws IOException {
+        return new Capture(key, outputStream);
+    }
+
+    private void put(String key, byte[] data) throws IOException {
+        if (data.length > maxBytes)
+            return;
+        if (directory == null) {
+            synchronized (this) {
+                add(key, new Entry(data.length, data));
+            }
+            return;
+        }
+
+        write(getFile(key), data);
+        synchronized (this) {
+            add(key, new Entry(data.length, null));
+        }
+    }
+
+    private void write(Path file, byte[] data) throws IOException {
+        // unique temporary file, the same document can be cached by concurrent extractions
+        Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, data);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void add(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null)
+            size -= previous.length;
+        size += entry.length;
+
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((size > maxBytes) && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key))
+                continue;
+            it.remove();
+            size -= eldest.getValue().length;
+            if (directory != null)
+                delete(eldest.getKey());
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            size -= entry.length;
+    }
+
+    private void delete(String key) {
+        try {
+            Files.deleteIfExists(getFile(key));
+        } catch (IOException e) {
+            log.warn("Cached document {} can't be deleted: {}", key, e.getLocalizedMessage());
+        }
+    }
+
+    private Path getFile(String key) {
+        return directory.resolve(key + EXTENSION);
+    }
+
+    /** Tee of the document, capturing stops if compressed document is bigger than the cache */
+    public class Capture extends FilterOutputStream {
+        private final String key;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private OutputStream compressor;
+
+        private Capture(String key, OutputStream outputStream) throws IOException {
+            super(outputStream);
+            this.key = key;
+            this.compressor = StandardCodec.LZ4.compress(buffer, key, Codec.DEFAULT_LEVEL, BUFFER_SIZE);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (compressor != null) {
+                compressor.write(b);
+                checkSize();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (compressor != null) {
+                compressor.write(b, off, len);
+                checkSize();
+            }
+        }
+
+        private void checkSize() {
+            if (buffer.size() > maxBytes) {
+                compressor = null;
+                buffer = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                if (compressor != null)
+                    compressor.close();
+            }
+        }
+
+        /** Caches the document, it must be closed and complete */
+        public void commit() throws IOException {
+            if (buffer != null)
+                put(key, buffer.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.amdocs.banextractor;
+
+import com.sshtools.ssh.SshClient;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Authenticated SSH clients kept open between extractions. Every task opens its own channel on the client with the
+ * fewest running tasks, the number of running tasks per client is bounded by sessions, so MaxSessions of the server
+ * (10 for OpenSSH by default) isn't exceeded. Client is reconnected if the server has closed the connection.
+ */
+@Slf4j
+public class SSHClientPool implements Closeable {
+    public static final int DEFAULT_CONNECTIONS = 2;
+    public static final int DEFAULT_SESSIONS = 4;
+
+    public interface Task {
+        void run(SshClient sshClient) throws Exception;
+    }
+
+    private final SSHServer sshServer;
+    private final SshClient[] clients;
+    private final int[] running;
+    private final Semaphore permits;
+
+    public SSHClientPool(SSHServer sshServer, int connections, int sessions) {
+        this.sshServer = sshServer;
+        this.clients = new SshClient[connections];
+        this.running = new int[connections];
+        this.permits = new Semaphore(connections * sessions, true);
+    }
+
+    public void run(Task task) throws Exception {
+        permits.acquire();
+        try {
+            int i = -1;
+            SshClient sshClient;
+            synchronized (this) {
+                for (int j = 0; j < clients.length; j++)
+                    if ((i == -1) || (running[j] < running[i]))
+                        i = j;
+                if ((clients[i] == null) || !clients[i].isConnected()) {
+                    if (clients[i] != null)
+                        log.info("Connection {} to SSH server {} is lost, reconnecting", i, sshServer.getServerName());
+                    clients[i] = sshServer.connect();
+                }
+                sshClient = clients[i];
+                running[i]++;
+            }
+
+            try {
+                task.run(sshClient);
+            } finally {
+                synchronized (this) {
+                    running[i]--;
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (int i = 0; i < clients.length; i++)
+            if (clients[i] != null) {
+                try {
+                    clients[i].exit();
+                } catch (Exception e) {
+                    log.warn("Connection {} to SSH server {} can't be closed: {}", i, sshServer.getServerName(), e.getLocalizedMessage());
+                }
+                clients[i] = null;
+            }
+    }
+}
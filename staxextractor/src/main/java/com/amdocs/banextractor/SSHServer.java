@@ -0,0 +1,96 @@
+package com.amdocs.banextractor;
+
+import com.sshtools.net.SocketTransport;
+import com.sshtools.publickey.SshPrivateKeyFile;
+import com.sshtools.publickey.SshPrivateKeyFileFactory;
+import com.sshtools.ssh.*;
+import com.sshtools.ssh.components.SshKeyPair;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** SSH server settings, one authenticated client can be shared by several extractors, every one opens its own channel */
+@Slf4j
+public class SSHServer {
+    private final String serverName;
+    private final String userName;
+    private int port = 22;
+    private String password;
+    private Path keyFile;
+
+    public SSHServer(String serverName, String userName) {
+        this.serverName = serverName;
+        this.userName = userName;
+    }
+
+    public String getServerName() {
+        return serverName;
+    }
+
+    public SSHServer setPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public SSHServer setPassword(String password) {
+        this.password = password;
+        return this;
+    }
+
+    public SSHServer setKeyFile(Path keyFile) {
+        this.keyFile = keyFile;
+        return this;
+    }
+
+    /** Connects and authenticates, client must be closed by exit() */
+    public SshClient connect() throws Exception {
+        SocketTransport sshTransport = new SocketTransport(serverName, port);
+        SshClient sshClient;
+        try {
+            sshClient = SshConnector.createInstance().connect(sshTransport, userName);
+        } catch (Exception e) {
+            sshTransport.close();
+            throw e;
+        }
+
+        try {
+            if (keyFile != null) {
+                log.info("Try to connect using public key file authenthification, key file name={}", keyFile);
+                SshPrivateKeyFile pkf = SshPrivateKeyFileFactory.parse(Files.readAllBytes(keyFile));
+                SshKeyPair pair = pkf.toKeyPair(password);
+                PublicKeyAuthentication pk = new PublicKeyAuthentication();
+                pk.setPrivateKey(pair.getPrivateKey());
+                pk.setPublicKey(pair.getPublicKey());
+
+                checkSSHAuthentication(sshClient, pk);
+            } else {
+                log.info("Try to connect using password authentication, password={}", password.substring(0, 1) + "..." + password.substring(password.length() - 1));
+                PasswordAuthentication pwd = new PasswordAuthentication();
+                pwd.setPassword(password);
+                checkSSHAuthentication(sshClient, pwd);
+            }
+        } catch (Exception e) {
+            sshClient.exit();
+            throw e;
+        }
+        return sshClient;
+    }
+
+    private void checkSSHAuthentication(SshClient sshClient, SshAuthentication sshAuthentication) throws SshException {
+        int returnCode = sshClient.authenticate(sshAuthentication);
+
+        if (returnCode == SshAuthentication.COMPLETE)
+            log.info("Authentication completed");
+        else {
+            String returnString = "unknown error";
+            switch (returnCode) {
+                case SshAuthentication.FAILED: returnString = "The authentication failed"; break;
+                case SshAuthentication.CANCELLED: returnString = "The authentication was cancelled by the user"; break;
+                case SshAuthentication.FURTHER_AUTHENTICATION_REQUIRED: returnString = "The authentication succeeded but further authentication is required"; break;
+                case SshAuthentication.PUBLIC_KEY_ACCEPTABLE: returnString = "The public key provided is acceptable for authentication"; break;
+            }
+            throw new SshException(new Exception("SSH connection haven't established, " + returnString + "[" + returnCode + "]"));
+        }
+    }
+}
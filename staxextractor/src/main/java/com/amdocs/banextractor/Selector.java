@@ -0,0 +1,215 @@
+package com.amdocs.banextractor;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Selects documents by the text of an element, selector is compiled once and checked while the document is parsed.
+ * <pre>
+ * Metadata/WIRELESS_BAN=287280107606            equals
+ * Metadata/WIRELESS_BAN=287280107606,287280107607  one of values, the same as "in 287280107606,287280107607"
+ * Metadata/WIRELESS_BAN in @bans.txt            one of values of the file, one value per line
+ * Metadata/INVOICE_NO^=287280107606X            starts with one of prefixes
+ * Metadata/STMT_DATE=2017-11-01..2017-11-30     range, bounds are inclusive and can be omitted
+ * //PhoneNumber=4695551234                      element at any depth
+ * </pre>
+ * Path is relative to att:MixedBillService and names are compared as they are in the file, with prefix. Values are
+ * trimmed. Range compares numbers as numbers (negative and decimal too), other values as strings, so ISO dates are
+ * compared right. Equals selector of Metadata/TITAN_BAN is the same as list of BANs, the first document of every BAN
+ * is written; other selectors write all matched documents.
+ */
+public class Selector {
+    private static final String[] PATH_TITAN_BAN = {"Metadata", "TITAN_BAN"};
+    private static final Pattern NUMBER = Pattern.compile("[-+]?(\\d+(\\.\\d*)?|\\.\\d+)");
+
+    private final String text;
+    private final String[] path;
+    private final boolean anyDepth;
+    private final Set<String> values;
+    private final Predicate<String> predicate;
+
+    private Selector(String text, String[] path, boolean anyDepth, Set<String> values, Predicate<String> predicate) {
+        this.text = text;
+        this.path = path;
+        this.anyDepth = anyDepth;
+        this.values = values;
+        this.predicate = predicate;
+    }
+
+    public static Selector parse(String text) throws IOException {
+        String s = text.trim();
+        // the first operator, values can contain any characters
+        int i = -1;
+        String operator = null;
+        for (String candidate : new String[]{"^=", " in ", "="}) {
+            int j = s.indexOf(candidate);
+            if ((j != -1) && ((i == -1) || (j < i))) {
+                i = j;
+                operator = candidate;
+            }
+        }
+        if (operator == null)
+            throw new IllegalArgumentException("Selector " + text + " has no operator =, ^= or in");
+
+        String pathText = s.substring(0, i).trim();
+        boolean anyDepth = pathText.startsWith("//");
+        pathText = pathText.replaceFirst("^/+", "");
+        if (pathText.isEmpty())
+            throw new IllegalArgumentException("Selector " + text + " has no element path");
+        String[] path = pathText.split("/");
+
+        List<String> values = getValues(s.substring(i + operator.length()).trim());
+        if (values.isEmpty())
+            throw new IllegalArgumentException("Selector " + text + " has no values");
+
+        if (operator.equals("^="))
+            return new Selector(text, path, anyDepth, null, new PrefixTrie(values)::matches);
+
+        int range = values.get(0).indexOf("..");
+        if (operator.equals("=") && (values.size() == 1) && (range != -1)) {
+            String from = values.get(0).substring(0, range).trim();
+            String to = values.get(0).substring(range + 2).trim();
+            return new Selector(text, path, anyDepth, null,
+                    value -> (from.isEmpty() || (compare(value, from) >= 0)) && (to.isEmpty() || (compare(value, to) <= 0)));
+        }
+
+        Set<String> set = new LinkedHashSet<>(values);
+        if (set.size() == 1) {
+            String value = values.get(0);
+            return new Selector(text, path, anyDepth, set, value::equals);
+        }
+        return new Selector(text, path, anyDepth, set, set::contains);
+    }
+
+    private static List<String> getValues(String s) throws IOException {
+        List<String> values = new ArrayList<>();
+        if (s.startsWith("@")) {
+            for (String line : Files.readAllLines(Paths.get(s.substring(1))))
+                if (!line.trim().isEmpty() && !line.trim().startsWith("#"))
+                    values.add(line.trim());
+        } else
+            for (String value : s.split(","))
+                if (!value.trim().isEmpty())
+                    values.add(value.trim());
+        return values;
+    }
+
+    /** Numbers of any length are compared as numbers, other values as strings */
+    static int compare(String a, String b) {
+        if (NUMBER.matcher(a).matches() && NUMBER.matcher(b).matches())
+            return new BigDecimal(a).compareTo(new BigDecimal(b));
+        return a.compareTo(b);
+    }
+
+    /** Values of equals selector, null for prefix and range */
+    public Set<String> getValues() {
+        return (values == null) ? null : Collections.unmodifiableSet(values);
+    }
+
+    /** Equals selector of TITAN_BAN is the same as list of BANs, it can use byte level prefilter and index */
+    public boolean isTitanBAN() {
+        return (values != null) && !anyDepth && Arrays.equals(path, PATH_TITAN_BAN);
+    }
+
+    public Matcher matcher() {
+        return new Matcher();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /** Element path of the current document, it is fed by parser events, state of one parsing run */
+    public class Matcher {
+        private String[] stack = new String[16];
+        private int depth = 0;
+        private StringBuilder value;
+        private int valueDepth;
+
+        /** Start of att:MixedBillService */
+        public void startDocument() {
+            depth = 0;
+            value = null;
+        }
+
+        public void startElement(String name) {
+            if (depth == stack.length)
+                stack = Arrays.copyOf(stack, depth * 2);
+            stack[depth++] = name;
+            // only the last name is compared for most elements
+            if ((value == null) && name.equals(path[path.length - 1]) && matchesPath()) {
+                value = new StringBuilder();
+                valueDepth = depth;
+            }
+        }
+
+        public void characters(String data) {
+            if (value != null)
+                value.append(data);
+        }
+
+        /** Returns value of the selected element if it matches, null otherwise */
+        public String endElement() {
+            String matched = null;
+            if ((value != null) && (depth == valueDepth)) {
+                String s = value.toString().trim();
+                value = null;
+                if (predicate.test(s))
+                    matched = s;
+            }
+            if (depth > 0)
+                depth--;
+            return matched;
+        }
+
+        /** Name of the current element, null if it is the document element */
+        public String current() {
+            return (depth == 0) ? null : stack[depth - 1];
+        }
+
+        private boolean matchesPath() {
+            if ((depth < path.length) || (!anyDepth && (depth != path.length)))
+                return false;
+            for (int i = 1; i <= path.length; i++)
+                if (!stack[depth - i].equals(path[path.length - i]))
+                    return false;
+            return true;
+        }
+    }
+
+    /** Prefixes of any number, value is checked in one pass over its characters */
+    private static class PrefixTrie {
+        private final Map<Character, PrefixTrie> children = new HashMap<>();
+        private boolean terminal = false;
+
+        PrefixTrie(Collection<String> prefixes) {
+            for (String prefix : prefixes) {
+                PrefixTrie node = this;
+                for (int i = 0; i < prefix.length(); i++)
+                    node = node.children.computeIfAbsent(prefix.charAt(i), c -> new PrefixTrie());
+                node.terminal = true;
+            }
+        }
+
+        private PrefixTrie() {
+        }
+
+        boolean matches(String value) {
+            PrefixTrie node = this;
+            for (int i = 0; !node.terminal; i++) {
+                if (i == value.length())
+                    return false;
+                node = node.children.get(value.charAt(i));
+                if (node == null)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
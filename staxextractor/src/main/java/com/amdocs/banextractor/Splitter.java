@@ -0,0 +1,376 @@
+package com.amdocs.banextractor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Splits the whole bill extract in one pass, every att:MixedBillService document is written to the file of its
+ * TITAN_BAN or to one of N shards chosen by hash of TITAN_BAN. Documents are found on the byte level and copied
+ * verbatim, file of BAN is the same as verbatim extraction of the BAN, the next document of the same BAN gets suffix.
+ * Shard is a bill extract itself: the prolog and the root element of input with its documents.
+ * <p>
+ * Files are written behind the scanner by writer threads, every file belongs to one thread, so its documents keep the
+ * order of input. Scanner waits only when writeBehind bytes are queued. Every writer thread keeps a bounded number of
+ * files open, the least recently used file is closed and reopened for append when needed again, so shard of GZIP or
+ * LZ4 gets one more member or frame. ZIP archive can't be appended, its shards must fit into open files.
+ */
+@Slf4j
+public class Splitter {
+    public static final int DEFAULT_WRITERS = 2;
+    public static final int DEFAULT_MAX_OPEN_FILES = 256;
+    public static final int DEFAULT_WRITE_BEHIND = 64 * 1024 * 1024;
+    private static final int MAX_PROLOG_SIZE = 64 * 1024;
+    private static final byte[] LF = {'\n'};
+
+    public interface Output {
+        /** Opens file of BAN or shard, append is true if the file has been written and closed before */
+        OutputStream open(String name, boolean append) throws IOException;
+    }
+
+    private int shards = 0;
+    private int writers = DEFAULT_WRITERS;
+    private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+    private int writeBehind = DEFAULT_WRITE_BEHIND;
+    private int stagingThreshold = StagingBuffer.DEFAULT_THRESHOLD;
+
+    /** Number of shards, 0 means file per BAN */
+    public Splitter setShards(int shards) {
+        this.shards = shards;
+        return this;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /** Threads writing and compressing files */
+    public Splitter setWriters(int writers) {
+        this.writers = writers;
+        return this;
+    }
+
+    /** Files kept open by all writer threads */
+    public Splitter setMaxOpenFiles(int maxOpenFiles) {
+        this.maxOpenFiles = maxOpenFiles;
+        return this;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    /** Bytes queued for writer threads before the scanner waits */
+    public Splitter setWriteBehind(int writeBehind) {
+        this.writeBehind = writeBehind;
+        return this;
+    }
+
+    public Splitter setStagingThreshold(int stagingThreshold) {
+        this.stagingThreshold = stagingThreshold;
+        return this;
+    }
+
+    /** Name of the shard of BAN, the same BAN always goes to the same shard */
+    public String getShardName(String BAN) {
+        return getShardName(Math.floorMod(BAN.hashCode(), shards));
+    }
+
+    private String getShardName(int shard) {
+        return String.format("shard-%0" + String.valueOf(shards - 1).length() + "d", shard);
+    }
+
+    /**
+     * Splits decompressed input, returns the number of documents
+     *
+     * @param documentListener is called with TITAN_BAN of every document on the scanner thread, can be null
+     */
+    long split(InputStream inputStream, int bufferSize, Output output, Consumer<String> documentListener, Metrics metrics) throws IOException {
+        Split split = new Split(output, documentListener, metrics);
+        try {
+            split.run(inputStream, bufferSize);
+        } finally {
+            split.close();
+        }
+        log.info("{} documents have been written to {} files", split.documents, (shards > 0) ? split.shardsWritten : split.names.size());
+        return split.documents;
+    }
+
+    private enum Destination {PROLOG, STAGING, OUT, TAIL}
+
+    private static class Task {
+        static final Task FINISH = new Task(null, null, false);
+
+        final String name;
+        final byte[] data;
+        final boolean end;
+
+        Task(String name, byte[] data, boolean end) {
+            this.name = name;
+            this.data = data;
+            this.end = end;
+        }
+    }
+
+    /** State of one split, it is used by the scanner thread only */
+    private class Split implements DocumentScanner.Listener, Closeable {
+        private final Output output;
+        private final Consumer<String> documentListener;
+        private final Metrics metrics;
+        private final DocumentScanner scanner = new DocumentScanner(this);
+        private final StagingBuffer staging = new StagingBuffer(stagingThreshold);
+        private final ByteArrayOutputStream prolog = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream epilog = new ByteArrayOutputStream();
+        private final Semaphore queued = new Semaphore(writeBehind);
+        private final Writer[] writerThreads;
+        private final Set<String> names = new HashSet<>();
+        private final BitSet shardsOpened = new BitSet();
+        private final DocumentCutter cutter = new DocumentCutter(scanner, this::write);
+        private Destination destination = Destination.PROLOG;
+        private String name;
+        private int writer;
+        private long documents = 0;
+        private int shardsWritten = 0;
+        private volatile IOException error;
+
+        Split(Output output, Consumer<String> documentListener, Metrics metrics) {
+            this.output = output;
+            this.documentListener = documentListener;
+            this.metrics = metrics;
+            writerThreads = new Writer[Math.max(1, writers)];
+            for (int i = 0; i < writerThreads.length; i++) {
+                writerThreads[i] = new Writer(Math.max(1, (maxOpenFiles + writerThreads.length - 1) / writerThreads.length));
+                writerThreads[i].setName("split-writer-" + i);
+                writerThreads[i].setDaemon(true);
+                writerThreads[i].start();
+            }
+        }
+
+        void run(InputStream inputStream, int bufferSize) throws IOException {
+            byte[] buffer = new byte[bufferSize];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1)
+                cutter.process(buffer, length);
+            // bytes held as possible start tag at the end of input
+            cutter.cut(cutter.getOffset());
+            if (destination == Destination.OUT)
+                log.error("Input ends inside document {}, it has been written partially", name);
+            else if (destination == Destination.STAGING)
+                log.error("Input ends inside document without TITAN_BAN");
+            finish();
+        }
+
+        /** Copies bytes cut from input to current destination */
+        private void write(byte[] b, int off, int len) throws IOException {
+            switch (destination) {
+                case PROLOG:
+                    if (prolog.size() < MAX_PROLOG_SIZE)
+                        prolog.write(b, off, len);
+                    break;
+                case STAGING:
+                    staging.write(b, off, len);
+                    break;
+                case OUT:
+                    submit(name, Arrays.copyOfRange(b, off, off + len), false);
+                    break;
+                case TAIL:
+                    if (epilog.size() < MAX_PROLOG_SIZE)
+                        epilog.write(b, off, len);
+                    break;
+            }
+        }
+
+        /** Queues bytes for the writer of the current file, waits while writeBehind bytes are queued */
+        private void submit(String name, byte[] data, boolean end) throws IOException {
+            if (error != null)
+                throw new IOException("Split file can't be written", error);
+            int permits = (data == null) ? 0 : Math.min(data.length, writeBehind);
+            long started = System.nanoTime();
+            try {
+                queued.acquire(permits);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Split has been interrupted");
+            }
+            if (data != null)
+                metrics.written(data.length, System.nanoTime() - started);
+            writerThreads[writer].queue.add(new Task(name, data, end));
+        }
+
+        @Override
+        public void documentStart(long offset) {
+            try {
+                cutter.cut(offset);
+                destination = Destination.STAGING;
+                name = null;
+                staging.reset();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void titanBAN(String BAN) {
+            if (name != null)
+                return;
+
+            try {
+                cutter.cut(scanner.getPosition());
+                if (shards > 0) {
+                    int shard = Math.floorMod(BAN.hashCode(), shards);
+                    name = getShardName(shard);
+                    writer = shard % writerThreads.length;
+                    if (!shardsOpened.get(shard)) {
+                        shardsOpened.set(shard);
+                        shardsWritten++;
+                    }
+                } else {
+                    name = BAN;
+                    for (int i = 2; !names.add(name); i++)
+                        name = BAN + "_" + i;
+                    writer = Math.floorMod(name.hashCode(), writerThreads.length);
+                }
+                destination = Destination.OUT;
+                staging.writeTo(new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        write(new byte[]{(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        submit(name, Arrays.copyOfRange(b, off, off + len), false);
+                    }
+                });
+                staging.reset();
+                if (documentListener != null)
+                    documentListener.accept(BAN);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void documentEnd(long offset) {
+            try {
+                cutter.cut(offset);
+                if (destination == Destination.OUT) {
+                    if (shards > 0)
+                        submit(name, LF, false);
+                    submit(name, null, shards == 0);
+                    documents++;
+                } else
+                    log.error("Document ending at {} has no TITAN_BAN, it is skipped", offset);
+                destination = Destination.TAIL;
+                epilog.reset();
+                staging.reset();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /** Shards get the end of input after the last document, so they are complete bill extracts */
+        private void finish() throws IOException {
+            if (shards > 0) {
+                if (prolog.size() >= MAX_PROLOG_SIZE)
+                    log.warn("Input has more than {} bytes before the first document, shards don't have them", MAX_PROLOG_SIZE);
+                byte[] end = epilog.toByteArray();
+                for (int shard = shardsOpened.nextSetBit(0); shard >= 0; shard = shardsOpened.nextSetBit(shard + 1)) {
+                    writer = shard % writerThreads.length;
+                    submit(getShardName(shard), end, false);
+                }
+            }
+        }
+
+        /** Waits till all files are written and closed */
+        @Override
+        public void close() throws IOException {
+            staging.close();
+            for (Writer writerThread : writerThreads)
+                writerThread.queue.add(Task.FINISH);
+            for (Writer writerThread : writerThreads)
+                try {
+                    writerThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Split has been interrupted");
+                }
+            if (error != null)
+                throw new IOException("Split file can't be written", error);
+        }
+
+        /** Writes files of its own, every file is written by one thread only */
+        private class Writer extends Thread {
+            private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+            private final int maxOpenFiles;
+            private final Map<String, OutputStream> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+            private final Set<String> closedFiles = new HashSet<>();
+
+            Writer(int maxOpenFiles) {
+                this.maxOpenFiles = maxOpenFiles;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    Task task;
+                    while ((task = queue.take()) != Task.FINISH) {
+                        try {
+                            if (error == null)
+                                write(task);
+                        } catch (IOException e) {
+                            log.error("File {} can't be written", task.name, e);
+                            error = e;
+                        } finally {
+                            if (task.data != null)
+                                queued.release(Math.min(task.data.length, writeBehind));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    for (Map.Entry<String, OutputStream> entry : openFiles.entrySet())
+                        try {
+                            entry.getValue().close();
+                        } catch (IOException e) {
+                            log.error("File {} can't be closed", entry.getKey(), e);
+                            if (error == null)
+                                error = e;
+                        }
+                    openFiles.clear();
+                }
+            }
+
+            private void write(Task task) throws IOException {
+                OutputStream outputStream = openFiles.get(task.name);
+                if (outputStream == null)
+                    outputStream = open(task.name);
+                if (task.data != null)
+                    outputStream.write(task.data);
+                if (task.end)
+                    openFiles.remove(task.name).close();
+            }
+
+            private OutputStream open(String name) throws IOException {
+                if (openFiles.size() >= maxOpenFiles) {
+                    Iterator<Map.Entry<String, OutputStream>> eldest = openFiles.entrySet().iterator();
+                    Map.Entry<String, OutputStream> entry = eldest.next();
+                    eldest.remove();
+                    entry.getValue().close();
+                    closedFiles.add(entry.getKey());
+                }
+                boolean append = closedFiles.remove(name);
+                OutputStream outputStream = output.open(name, append);
+                openFiles.put(name, outputStream);
+                if (!append && (shards > 0))
+                    outputStream.write(prolog.toByteArray());
+                return outputStream;
+            }
+        }
+    }
+}
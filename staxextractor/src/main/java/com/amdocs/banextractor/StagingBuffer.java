@@ -0,0 +1,113 @@
+package com.amdocs.banextractor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Keeps bytes of the document until it is known whether the document is needed. Bytes are kept in memory up to
+ * threshold, the rest is spilled to temporary file, so heap usage doesn't depend on document size. Buffer is reused
+ * for all documents, temporary file is deleted on close.
+ */
+@Slf4j
+public class StagingBuffer extends OutputStream {
+    public static final int DEFAULT_THRESHOLD = 4 * 1024 * 1024;
+    private static final int INITIAL_SIZE = 8 * 1024;
+
+    private final int threshold;
+    private byte[] bytes = new byte[INITIAL_SIZE];
+    private int count = 0;
+    private Path spillFile;
+    private OutputStream spillStream;
+    private long spilled = 0;
+
+    public StagingBuffer(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public long size() {
+        return count + spilled;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count < threshold) {
+            ensureCapacity(count + 1);
+            bytes[count++] = (byte) b;
+        } else {
+            spill().write(b);
+            spilled++;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int inMemory = Math.min(len, threshold - count);
+        if (inMemory > 0) {
+            ensureCapacity(count + inMemory);
+            System.arraycopy(b, off, bytes, count, inMemory);
+            count += inMemory;
+        }
+        if (len > inMemory) {
+            spill().write(b, off + inMemory, len - inMemory);
+            spilled += len - inMemory;
+        }
+    }
+
+    /** Writes all staged bytes to the output stream, buffer isn't cleared */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(bytes, 0, count);
+        if (spilled > 0) {
+            spillStream.flush();
+            Files.copy(spillFile, outputStream);
+        }
+    }
+
+    /** Reads staged bytes, buffer must not be written or reset while the stream is read */
+    public InputStream getInputStream() throws IOException {
+        InputStream inputStream = new ByteArrayInputStream(bytes, 0, count);
+        if (spilled == 0)
+            return inputStream;
+
+        spillStream.flush();
+        return new SequenceInputStream(inputStream, Files.newInputStream(spillFile));
+    }
+
+    public void reset() throws IOException {
+        count = 0;
+        if (spilled > 0) {
+            spillStream.close();
+            spillStream = new BufferedOutputStream(Files.newOutputStream(spillFile));
+            spilled = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        count = 0;
+        spilled = 0;
+        if (spillStream != null) {
+            spillStream.close();
+            spillStream = null;
+            Files.deleteIfExists(spillFile);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.min(Math.max(bytes.length * 2, capacity), threshold));
+    }
+
+    private OutputStream spill() throws IOException {
+        if (spillStream == null) {
+            spillFile = Files.createTempFile("banextractor", ".staging");
+            spillFile.toFile().deleteOnExit();
+            spillStream = new BufferedOutputStream(Files.newOutputStream(spillFile));
+            log.info("Document is bigger than {} bytes, it is staged in {}", threshold, spillFile);
+        }
+        return spillStream;
+    }
+}
@@ -0,0 +1,112 @@
+package com.amdocs.banextractor;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public enum StandardCodec implements Codec {
+    /** Plain XML */
+    NONE("") {
+        @Override
+        public boolean matches(byte[] header, int length) {
+            return false;
+        }
+
+        @Override
+        public InputStream decompress(InputStream inputStream, int bufferSize) {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream outputStream, String entryName, int level, int bufferSize) {
+            return outputStream;
+        }
+    },
+
+    /** Single and multi-member gzip, levels 0-9 */
+    GZIP(".gz") {
+        @Override
+        public boolean matches(byte[] header, int length) {
+            return (header[0] == 0x1F) && (header[1] == (byte) 0x8B) && (header[2] == 0x08);
+        }
+
+        @Override
+        public InputStream decompress(InputStream inputStream, int bufferSize) {
+            return new GZIPMemberInputStream(inputStream, bufferSize);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream outputStream, String entryName, int level, int bufferSize) throws IOException {
+            return new GZIPOutputStream(outputStream, bufferSize) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+    },
+
+    /** ZIP archive with one entry, only the first entry is read, levels 0-9 */
+    ZIP(".zip") {
+        @Override
+        public boolean matches(byte[] header, int length) {
+            return (length == HEADER_SIZE) && (header[0] == 'P') && (header[1] == 'K') && (header[2] == 3) && (header[3] == 4);
+        }
+
+        @Override
+        public InputStream decompress(InputStream inputStream, int bufferSize) throws IOException {
+            ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+            if (zipInputStream.getNextEntry() == null)
+                throw new IOException("ZIP archive is empty");
+            return zipInputStream;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream outputStream, String entryName, int level, int bufferSize) throws IOException {
+            ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+            zipOutputStream.setLevel(level);
+            zipOutputStream.putNextEntry(new ZipEntry(entryName));
+            return zipOutputStream;
+        }
+    },
+
+    /** LZ4 frame format, default level is the fast compressor, levels 1-17 are the high compressor */
+    LZ4(".lz4") {
+        @Override
+        public boolean matches(byte[] header, int length) {
+            return (length == HEADER_SIZE) && (header[0] == 0x04) && (header[1] == 0x22) && (header[2] == 0x4D) && (header[3] == 0x18);
+        }
+
+        @Override
+        public InputStream decompress(InputStream inputStream, int bufferSize) throws IOException {
+            return new LZ4FrameInputStream(inputStream);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream outputStream, String entryName, int level, int bufferSize) throws IOException {
+            LZ4Compressor compressor = (level > 0) ? LZ4Factory.fastestInstance().highCompressor(level) : LZ4Factory.fastestInstance().fastCompressor();
+            return new LZ4FrameOutputStream(outputStream, LZ4FrameOutputStream.BLOCKSIZE.SIZE_256KB, -1L, compressor,
+                    XXHashFactory.fastestInstance().hash32(), LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE);
+        }
+    };
+
+    private final String extension;
+
+    StandardCodec(String extension) {
+        this.extension = extension;
+    }
+
+    @Override
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,84 @@
+package com.amdocs.banextractor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static com.amdocs.banextractor.GZIPMemberInputStreamTest.*;
+import static org.junit.Assert.*;
+
+public class BANIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String slice(byte[] data, BANIndex.Entry entry) {
+        return new String(data, (int) entry.getOffset(), (int) entry.getLength(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void plainDocumentsAreIndexedAndTheFirstDocumentWins() throws IOException {
+        String first = document("1", "2017-10-15");
+        byte[] xml = bytes(extract(first, document("2"), document("1", "2017-11-15")));
+
+        BANIndex index = BANIndex.build(new ByteArrayInputStream(xml), xml.length, 1);
+
+        assertFalse(index.isCompressed());
+        assertEquals(2, index.size());
+        assertEquals(first, slice(xml, index.get("1")));
+        assertEquals(document("2"), slice(xml, index.get("2")));
+        assertNull(index.get("3"));
+    }
+
+    @Test
+    public void gzipDocumentsAreIndexedByMember() throws IOException {
+        byte[] first = bytes(PROLOG + document("1") + "\n");
+        byte[] second = bytes(document("2") + "\n" + EPILOG);
+        byte[] firstMember = gzip(first);
+        byte[] compressed = concat(firstMember, gzip(second));
+
+        BANIndex index = BANIndex.build(new ByteArrayInputStream(compressed), compressed.length, 1);
+
+        assertTrue(index.isCompressed());
+        BANIndex.Entry entry = index.get("2");
+        assertEquals(firstMember.length, entry.getMemberCompressedOffset());
+        assertEquals(first.length, entry.getMemberOffset());
+        // restart at the member and skip to the document
+        GZIPMemberInputStream inputStream = new GZIPMemberInputStream(new ByteArrayInputStream(compressed,
+                (int) entry.getMemberCompressedOffset(), compressed.length), 16, entry.getMemberCompressedOffset(), entry.getMemberOffset());
+        assertEquals(entry.getOffset() - entry.getMemberOffset(), inputStream.skip(entry.getOffset() - entry.getMemberOffset()));
+        assertEquals(document("2"), new String(readAll(new RangeInputStream(inputStream, entry.getLength())), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void savedIndexIsLoadedAndInvalidatedByChangedFile() throws IOException {
+        byte[] xml = bytes(extract(document("1"), document("2")));
+        BANIndex index = BANIndex.build(new ByteArrayInputStream(xml), xml.length, 42);
+        Path path = folder.getRoot().toPath().resolve("in.xml.idx");
+
+        index.save(path);
+        BANIndex loaded = BANIndex.load(path);
+
+        assertNotNull(loaded);
+        assertEquals(index.get("2"), loaded.get("2"));
+        assertTrue(loaded.isValid(xml.length, 42));
+        assertFalse(loaded.isValid(xml.length + 1, 42));
+        assertFalse(loaded.isValid(xml.length, 43));
+    }
+
+    @Test
+    public void unreadableIndexIsAbsent() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("broken.idx");
+        Files.write(path, Arrays.asList("not an index"));
+
+        assertNull(BANIndex.load(path));
+        assertNull(BANIndex.load(folder.getRoot().toPath().resolve("absent.idx")));
+    }
+}
@@ -0,0 +1,88 @@
+package com.amdocs.banextractor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static com.amdocs.banextractor.GZIPMemberInputStreamTest.gzip;
+import static org.junit.Assert.*;
+
+public class BatchExtractorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File input;
+    private File output;
+
+    @Before
+    public void createFiles() throws Exception {
+        input = folder.newFolder("in");
+        output = folder.newFolder("out");
+        Files.write(input.toPath().resolve("a.xml"), bytes(extract(document("1"), document("2"))));
+        Files.write(input.toPath().resolve("b.xml.gz"), gzip(bytes(extract(document("2"), document("3")))));
+        // index files are skipped
+        Files.write(input.toPath().resolve("a.xml.idx"), new byte[]{1, 2, 3, 4, 5});
+    }
+
+    private BatchExtractor batch(String input, String... BANs) {
+        List<String> list = Arrays.asList(BANs);
+        return new BatchExtractor(list, input, file -> Extractor.of(list, file, output.toString(), "XML")).setWorkers(2);
+    }
+
+    @Test
+    public void filesOfDirectoryAreReportedByBAN() throws Exception {
+        Path reportFile = folder.getRoot().toPath().resolve("report.csv");
+        BatchExtractor batch = batch(input.toString(), "1", "2", "4").setReportFile(reportFile);
+        batch.run();
+
+        String a = input.toPath().resolve("a.xml").toString();
+        String b = input.toPath().resolve("b.xml.gz").toString();
+        Map<String, List<String>> expected = new LinkedHashMap<>();
+        expected.put("1", Collections.singletonList(a));
+        expected.put("2", Arrays.asList(a, b));
+        expected.put("4", Collections.<String>emptyList());
+        assertEquals(expected, batch.getReport());
+        assertTrue(batch.getFailedFiles().isEmpty());
+        assertEquals(new TreeSet<>(Arrays.asList("a.1.xml", "a.2.xml", "b.xml.2.xml")), new TreeSet<>(Arrays.asList(output.list())));
+        assertEquals("BAN,file\n1," + a + "\n2," + a + "\n2," + b + "\n4,\n",
+                new String(Files.readAllBytes(reportFile), StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n"));
+    }
+
+    @Test
+    public void globSelectsFiles() throws Exception {
+        BatchExtractor batch = batch(input.toString() + "/*.gz", "1", "3");
+        batch.run();
+
+        assertEquals(Collections.<String>emptyList(), batch.getReport().get("1"));
+        assertEquals(Collections.singletonList(input.toPath().resolve("b.xml.gz").toString()), batch.getReport().get("3"));
+    }
+
+    @Test
+    public void failedFileDoesNotStopOtherFiles() throws Exception {
+        Path c = input.toPath().resolve("c.xml");
+        Files.write(c, bytes(extract(document("3"))));
+        List<String> BANs = Collections.singletonList("3");
+        // file is removed after it has been listed
+        BatchExtractor batch = new BatchExtractor(BANs, input.toString(), file -> {
+            try {
+                Files.deleteIfExists(c);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return Extractor.of(BANs, file, output.toString(), "XML");
+        }).setWorkers(1);
+        batch.run();
+
+        assertEquals(Collections.singletonList(c.toString()), batch.getFailedFiles());
+        assertEquals(Collections.singletonList(input.toPath().resolve("b.xml.gz").toString()), batch.getReport().get("3"));
+    }
+}
@@ -0,0 +1,34 @@
+package com.amdocs.banextractor;
+
+import java.nio.charset.StandardCharsets;
+
+/** Small bill extracts built in memory */
+final class BillExtracts {
+    static final String PROLOG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Bills>\n";
+    static final String EPILOG = "</Bills>\n";
+
+    private BillExtracts() {
+    }
+
+    static String document(String BAN, String stmtDate) {
+        return "<att:MixedBillService xmlns:att=\"http://www.britebill.com/edoc/Electronicbiller/att\">\n" +
+                "<Metadata><TITAN_BAN>" + BAN + "</TITAN_BAN><STMT_DATE>" + stmtDate + "</STMT_DATE></Metadata>\n" +
+                "<Calls><Call><Date>" + stmtDate + "</Date><Amount>1.50</Amount></Call></Calls>\n" +
+                "</att:MixedBillService>";
+    }
+
+    static String document(String BAN) {
+        return document(BAN, "2017-11-15");
+    }
+
+    static String extract(String... documents) {
+        StringBuilder sb = new StringBuilder(PROLOG);
+        for (String document : documents)
+            sb.append(document).append('\n');
+        return sb.append(EPILOG).toString();
+    }
+
+    static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
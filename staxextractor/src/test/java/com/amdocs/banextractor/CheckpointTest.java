@@ -0,0 +1,164 @@
+package com.amdocs.banextractor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static com.amdocs.banextractor.GZIPMemberInputStreamTest.*;
+import static org.junit.Assert.*;
+
+public class CheckpointTest {
+    private static final List<String> BANS = Arrays.asList("1", "3");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Checkpoint checkpoint() {
+        return new Checkpoint(folder.getRoot().toPath().resolve("in.ckp"));
+    }
+
+    @Test
+    public void stateIsSavedAndLoaded() throws Exception {
+        Checkpoint checkpoint = checkpoint();
+        checkpoint.start(1000, 42, BANS, null);
+        checkpoint.track(0, false, new LinkedHashSet<>(Collections.singleton("3")));
+        checkpoint.documentEnd(100);
+        checkpoint.documentDropped();
+        checkpoint.save();
+
+        Checkpoint.State state = checkpoint().load(1000, 42, Arrays.asList("3", "1"));
+        assertNotNull(state);
+        assertFalse(state.isCompressed());
+        assertEquals(new Checkpoint.Position(100, 100, 100), state.getPosition());
+        assertEquals(1, state.getDocuments());
+        assertEquals(Collections.singleton("3"), state.getPendingBANs());
+    }
+
+    @Test
+    public void checkpointOfOtherFileOrBANsIsNotUsed() throws Exception {
+        assertNull(checkpoint().load(1000, 42, BANS));
+
+        Checkpoint checkpoint = checkpoint();
+        checkpoint.start(1000, 42, BANS, null);
+        checkpoint.track(0, false, new LinkedHashSet<>(BANS));
+        checkpoint.documentEnd(100);
+        checkpoint.documentDropped();
+        checkpoint.save();
+
+        assertNull(checkpoint().load(1001, 42, BANS));
+        assertNull(checkpoint().load(1000, 43, BANS));
+        assertNull(checkpoint().load(1000, 42, Collections.singleton("1")));
+        assertNotNull(checkpoint().load(1000, 42, BANS));
+
+        checkpoint.delete();
+        assertNull(checkpoint().load(1000, 42, BANS));
+    }
+
+    @Test
+    public void documentPassedToParserHoldsCheckpointBack() throws Exception {
+        Checkpoint checkpoint = checkpoint();
+        checkpoint.start(1000, 42, BANS, null);
+        checkpoint.track(0, false, new LinkedHashSet<>(BANS));
+        checkpoint.documentPassed();
+        checkpoint.documentEnd(100);
+        checkpoint.documentDropped();
+        checkpoint.documentEnd(200);
+        checkpoint.save();
+        assertNull(checkpoint().load(1000, 42, BANS));
+
+        checkpoint.documentParsed();
+        checkpoint.save();
+        assertEquals(200, checkpoint().load(1000, 42, BANS).getPosition().getOffset());
+    }
+
+    @Test
+    public void documentEndIsInTheLastMemberStartedBeforeIt() throws Exception {
+        Checkpoint checkpoint = checkpoint();
+        checkpoint.start(1000, 42, BANS, null);
+        checkpoint.memberStart(0, 0);
+        checkpoint.memberStart(30, 150);
+        // read ahead has started the next member already
+        checkpoint.memberStart(60, 300);
+        checkpoint.track(0, true, new LinkedHashSet<>(BANS));
+        checkpoint.documentEnd(200);
+        checkpoint.documentDropped();
+        checkpoint.save();
+
+        Checkpoint.State state = checkpoint().load(1000, 42, BANS);
+        assertTrue(state.isCompressed());
+        assertEquals(new Checkpoint.Position(30, 150, 200), state.getPosition());
+    }
+
+    /** Saves checkpoint of the scan broken after the first document of in.xml has been written */
+    private void breakScan(Path input, long memberCompressedOffset, long memberOffset, boolean compressed, long end) throws Exception {
+        Checkpoint checkpoint = checkpoint();
+        checkpoint.start(Files.size(input), Files.getLastModifiedTime(input).toMillis(), BANS, null);
+        checkpoint.memberStart(0, 0);
+        if (memberOffset > 0)
+            checkpoint.memberStart(memberCompressedOffset, memberOffset);
+        checkpoint.track(0, compressed, new LinkedHashSet<>(Collections.singleton("3")));
+        checkpoint.documentPassed();
+        checkpoint.documentEnd(end);
+        checkpoint.documentParsed();
+        checkpoint.save();
+    }
+
+    private void assertResumed(Path input) throws Exception {
+        File output = folder.newFolder("out");
+        Extractor extractor = Extractor.of(BANS, input.toString(), output.toString(), "XML").setCheckpoint(checkpoint());
+        extractor.runLocal();
+
+        File[] files = output.listFiles();
+        assertEquals(1, files.length);
+        assertTrue(files[0].getName().endsWith(".3.xml"));
+        assertTrue(new String(Files.readAllBytes(files[0].toPath()), StandardCharsets.UTF_8).contains("<TITAN_BAN>3</TITAN_BAN>"));
+        assertEquals(new HashSet<>(BANS), extractor.getFoundBANs());
+        assertFalse(Files.exists(checkpoint().getPath()));
+    }
+
+    @Test
+    public void plainScanResumesFromCheckpoint() throws Exception {
+        String first = document("1");
+        String xml = extract(first, document("2"), document("3"));
+        Path input = folder.getRoot().toPath().resolve("in.xml");
+        Files.write(input, bytes(xml));
+        breakScan(input, 0, 0, false, xml.indexOf(first) + first.length());
+
+        assertResumed(input);
+    }
+
+    @Test
+    public void gzipScanResumesFromMemberOfCheckpoint() throws Exception {
+        String first = document("1");
+        String xml = extract(first, document("2"), document("3"));
+        // the first document ends in the second member
+        int boundary = xml.indexOf(first) + 10;
+        byte[] member = gzip(bytes(xml.substring(0, boundary)));
+        Path input = folder.getRoot().toPath().resolve("in.xml.gz");
+        Files.write(input, concat(member, gzip(bytes(xml.substring(boundary)))));
+        breakScan(input, member.length, boundary, true, xml.indexOf(first) + first.length());
+
+        assertResumed(input);
+    }
+
+    @Test
+    public void resumedScanDecodesInputByItsEncoding() throws Exception {
+        String first = document("1");
+        String xml = extract(first, document("2"), document("3").replace("<Calls>", "<Name>Caf\u00e9</Name><Calls>"))
+                .replace("encoding=\"UTF-8\"", "encoding=\"ISO-8859-1\"");
+        Path input = folder.getRoot().toPath().resolve("in.xml");
+        Files.write(input, xml.getBytes(StandardCharsets.ISO_8859_1));
+        breakScan(input, 0, 0, false, xml.indexOf(first) + first.length());
+
+        assertResumed(input);
+        File[] files = folder.getRoot().toPath().resolve("out").toFile().listFiles();
+        assertTrue(new String(Files.readAllBytes(files[0].toPath()), StandardCharsets.UTF_8).contains("<Name>Caf\u00e9</Name>"));
+    }
+}
@@ -0,0 +1,108 @@
+package com.amdocs.banextractor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static com.amdocs.banextractor.GZIPMemberInputStreamTest.*;
+import static org.junit.Assert.*;
+
+public class DocumentFilterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Copies documents of BANs feeding the filter by chunks, returns documents by BAN */
+    private static Map<String, String> copy(byte[] input, int chunkSize, String... BANs) throws IOException {
+        Map<String, ByteArrayOutputStream> documents = new LinkedHashMap<>();
+        List<String> skipped = new ArrayList<>();
+        try (DocumentFilter filter = new DocumentFilter(Arrays.asList(BANs), new DocumentFilter.Sink() {
+            @Override
+            public OutputStream documentStart(String BAN) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                documents.put(BAN, outputStream);
+                return outputStream;
+            }
+
+            @Override
+            public void documentEnd(String BAN) {
+            }
+        }, skipped::add, StagingBuffer.DEFAULT_THRESHOLD)) {
+            for (int i = 0; (i < input.length) && !filter.isFinished(); i += chunkSize) {
+                byte[] chunk = Arrays.copyOfRange(input, i, Math.min(input.length, i + chunkSize));
+                filter.process(chunk, chunk.length);
+            }
+        }
+        Map<String, String> result = new LinkedHashMap<>();
+        for (Map.Entry<String, ByteArrayOutputStream> entry : documents.entrySet())
+            result.put(entry.getKey(), new String(entry.getValue().toByteArray(), StandardCharsets.UTF_8));
+        return result;
+    }
+
+    @Test
+    public void documentsAreCopiedExactlyWhateverTheChunks() throws IOException {
+        String first = document("1");
+        String third = document("3");
+        byte[] input = bytes(extract(first, document("2"), third, document("1", "2017-12-15")));
+
+        for (int chunkSize = 1; chunkSize <= 300; chunkSize++) {
+            Map<String, String> documents = copy(input, chunkSize, "1", "3");
+            assertEquals("chunk size " + chunkSize, first, documents.get("1"));
+            assertEquals("chunk size " + chunkSize, third, documents.get("3"));
+        }
+    }
+
+    @Test
+    public void startTagSpanningManyShortReadsIsKept() throws IOException {
+        String wanted = document("2");
+        byte[] input = bytes(extract(document("1"), wanted));
+
+        // chunks of 3 bytes split the start tag of the wanted document across 7 chunks
+        assertEquals(wanted, copy(input, 3, "2").get("2"));
+    }
+
+    @Test
+    public void filterFinishesAfterTheLastBAN() throws IOException {
+        byte[] input = bytes(extract(document("1"), document("2")));
+
+        assertEquals(Collections.singleton("1"), copy(input, 5, "1").keySet());
+    }
+
+    @Test
+    public void gzipMemberBoundaryInsideStartTagDoesntLoseDocument() throws Exception {
+        String wanted = document("2");
+        String xml = extract(document("1"), wanted);
+        // the member ends 5 bytes into <att:MixedBillService, decompressor returns the tail of the member alone
+        int boundary = xml.indexOf(wanted) + 5;
+        Path input = folder.getRoot().toPath().resolve("in.xml.gz");
+        Files.write(input, concat(gzip(bytes(xml.substring(0, boundary))), gzip(bytes(xml.substring(boundary)))));
+        Path output = folder.getRoot().toPath().resolve("2.xml");
+
+        Extractor.of("2", input.toString(), output.toString(), "XML").setVerbatim(true).runLocal();
+        assertEquals(wanted, new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+
+        Files.delete(output);
+        Extractor.of("2", input.toString(), output.toString(), "XML").runLocal();
+        assertTrue(new String(Files.readAllBytes(output), StandardCharsets.UTF_8).contains("<TITAN_BAN>2</TITAN_BAN>"));
+    }
+
+    @Test
+    public void tinyBuffersDontLoseDocument() throws Exception {
+        String wanted = document("2");
+        Path input = folder.getRoot().toPath().resolve("in.xml");
+        Files.write(input, bytes(extract(document("1"), wanted)));
+        Path output = folder.getRoot().toPath().resolve("2.xml");
+
+        Extractor.of("2", input.toString(), output.toString(), "XML").setVerbatim(true).setBufferSize(16).runLocal();
+
+        assertEquals(wanted, new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,91 @@
+package com.amdocs.banextractor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static org.junit.Assert.*;
+
+public class DocumentScannerTest {
+    /** Events as strings, so runs fed by different chunks can be compared */
+    private static List<String> scan(byte[] input, int chunkSize) {
+        List<String> events = new ArrayList<>();
+        DocumentScanner scanner = new DocumentScanner(new DocumentScanner.Listener() {
+            @Override
+            public void documentStart(long offset) {
+                events.add("start " + offset);
+            }
+
+            @Override
+            public void titanBAN(String BAN) {
+                events.add("BAN " + BAN);
+            }
+
+            @Override
+            public void documentEnd(long offset) {
+                events.add("end " + offset);
+            }
+        });
+        for (int i = 0; i < input.length; i += chunkSize)
+            scanner.scan(input, i, Math.min(chunkSize, input.length - i));
+        return events;
+    }
+
+    @Test
+    public void documentsAreFoundByOffsets() {
+        String first = document("1");
+        String second = document("2");
+        String xml = extract(first, second);
+
+        List<String> events = scan(bytes(xml), xml.length());
+
+        int start = xml.indexOf(first);
+        int next = xml.indexOf(second);
+        assertEquals(String.join(",", "start " + start, "BAN 1", "end " + (start + first.length()),
+                "start " + next, "BAN 2", "end " + (next + second.length())), String.join(",", events));
+    }
+
+    @Test
+    public void chunkBoundariesDontChangeEvents() {
+        byte[] input = bytes(extract(document("1"), document(" 2 "), document("3")));
+        List<String> expected = scan(input, input.length);
+        for (int chunkSize = 1; chunkSize <= 64; chunkSize++)
+            assertEquals("chunk size " + chunkSize, expected, scan(input, chunkSize));
+    }
+
+    @Test
+    public void tagsInCommentsAndCDATAAreSkipped() {
+        String xml = PROLOG + "<!-- <att:MixedBillService> --><x><![CDATA[</att:MixedBillService>]]></x>" +
+                document("1") + "<?pi <att:MixedBillService>?>" + EPILOG;
+
+        List<String> events = scan(bytes(xml), 7);
+
+        assertEquals(3, events.size());
+        assertEquals("start " + xml.indexOf("<att:MixedBillService xmlns"), events.get(0));
+    }
+
+    @Test
+    public void positionMovesOffsets() {
+        byte[] input = bytes(document("1"));
+        List<String> events = new ArrayList<>();
+        new DocumentScanner(new DocumentScanner.Listener() {
+            @Override
+            public void documentStart(long offset) {
+                events.add("start " + offset);
+            }
+
+            @Override
+            public void titanBAN(String BAN) {
+            }
+
+            @Override
+            public void documentEnd(long offset) {
+                events.add("end " + offset);
+            }
+        }).setPosition(1000).scan(input, 0, input.length);
+
+        assertEquals(String.join(",", "start 1000", "end " + (1000 + input.length)), String.join(",", events));
+    }
+}
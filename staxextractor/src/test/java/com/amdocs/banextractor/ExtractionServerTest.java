@@ -0,0 +1,148 @@
+package com.amdocs.banextractor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static com.amdocs.banextractor.GZIPMemberInputStreamTest.readAll;
+import static org.junit.Assert.*;
+
+public class ExtractionServerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Path root;
+    private ExtractionServer server;
+
+    @Before
+    public void start() throws Exception {
+        root = folder.newFolder("data").toPath();
+        Files.write(root.resolve("in.xml"), bytes(extract(document("1"), document("2"), document("3"))));
+        Files.write(folder.getRoot().toPath().resolve("secret.xml"), bytes(extract(document("1"))));
+        server = new ExtractionServer(0, (BANs, fileName) -> Extractor.of(BANs, fileName, ".", "XML"))
+                .setWorkers(2).setRoots(Collections.singletonList(root));
+        server.start();
+    }
+
+    @After
+    public void stop() {
+        server.close();
+    }
+
+    private HttpURLConnection get(String query) throws IOException {
+        return (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + "/extract?" + query).openConnection();
+    }
+
+    private static String file(String fileName) throws IOException {
+        return "file=" + URLEncoder.encode(fileName, "UTF-8");
+    }
+
+    private static byte[] body(HttpURLConnection connection) throws IOException {
+        try (InputStream inputStream = connection.getInputStream()) {
+            return readAll(inputStream);
+        }
+    }
+
+    @Test
+    public void documentOfBANIsReturnedAsXML() throws Exception {
+        HttpURLConnection connection = get("ban=2&" + file("in.xml"));
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("application/xml", connection.getContentType());
+        String xml = new String(body(connection), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<TITAN_BAN>2</TITAN_BAN>"));
+        assertFalse(xml.contains("<TITAN_BAN>1</TITAN_BAN>"));
+    }
+
+    @Test
+    public void documentsOfSeveralBANsAreReturnedAsZIP() throws Exception {
+        HttpURLConnection connection = get("ban=3&ban=1,4&" + file(root.resolve("in.xml").toString()));
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("application/zip", connection.getContentType());
+
+        Map<String, String> entries = new TreeMap<>();
+        try (ZipInputStream inputStream = new ZipInputStream(connection.getInputStream())) {
+            for (ZipEntry entry; (entry = inputStream.getNextEntry()) != null; )
+                entries.put(entry.getName(), new String(readAll(inputStream), StandardCharsets.UTF_8));
+        }
+        assertEquals(new TreeSet<>(Arrays.asList("1.xml", "3.xml")), entries.keySet());
+        assertTrue(entries.get("3.xml").contains("<TITAN_BAN>3</TITAN_BAN>"));
+    }
+
+    @Test
+    public void concurrentIndexedRequestsShareIndex() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        Map<String, String> responses = new ConcurrentHashMap<>();
+        for (String BAN : Arrays.asList("1", "2", "3", "4"))
+            threads.add(new Thread(() -> {
+                try {
+                    HttpURLConnection connection = get("ban=" + BAN + "&index=true&" + file("in.xml"));
+                    responses.put(BAN, (connection.getResponseCode() == 200) ? new String(body(connection), StandardCharsets.UTF_8) : "");
+                } catch (IOException e) {
+                    responses.put(BAN, e.toString());
+                }
+            }));
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        for (String BAN : Arrays.asList("1", "2", "3"))
+            assertTrue(responses.get(BAN), responses.get(BAN).contains("<TITAN_BAN>" + BAN + "</TITAN_BAN>"));
+        assertEquals("", responses.get("4"));
+        assertTrue(Files.exists(root.resolve("in.xml.idx")));
+    }
+
+    @Test
+    public void notFoundBANsAreNotFound() throws Exception {
+        assertEquals(404, get("ban=4&" + file("in.xml")).getResponseCode());
+        assertEquals(404, get("ban=1&" + file("missing.xml")).getResponseCode());
+    }
+
+    @Test
+    public void requestWithoutBANOrFileIsBad() throws Exception {
+        assertEquals(400, get(file("in.xml")).getResponseCode());
+        assertEquals(400, get("ban=1").getResponseCode());
+    }
+
+    @Test
+    public void onlyGETIsSupported() throws Exception {
+        HttpURLConnection connection = get("ban=1&" + file("in.xml"));
+        connection.setRequestMethod("DELETE");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    @Test
+    public void fileOutsideOfRootsIsForbidden() throws Exception {
+        String secret = folder.getRoot().toPath().resolve("secret.xml").toString();
+        assertEquals(403, get("ban=1&" + file(secret)).getResponseCode());
+        assertEquals(403, get("ban=1&" + file("../secret.xml")).getResponseCode());
+        assertEquals(403, get("ban=1&" + file(root.resolve("../secret.xml").toString())).getResponseCode());
+    }
+
+    @Test
+    public void fileNameIsResolvedAgainstRoots() {
+        assertEquals(root.resolve("in.xml").toString(), server.resolve("sub/../in.xml"));
+        assertEquals(root.resolve("in.xml").toString(), server.resolve(root.resolve("in.xml").toString()));
+        assertNull(server.resolve("sub/../../secret.xml"));
+
+        server.setRoots(Collections.<Path>emptyList());
+        assertEquals("in.xml", server.resolve("./in.xml"));
+        assertNull(server.resolve("../in.xml"));
+        assertNull(server.resolve(root.resolve("in.xml").toString()));
+    }
+}
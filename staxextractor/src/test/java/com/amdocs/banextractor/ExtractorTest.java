@@ -0,0 +1,127 @@
+package com.amdocs.banextractor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static org.junit.Assert.*;
+
+public class ExtractorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path input(String xml) throws Exception {
+        Path input = folder.getRoot().toPath().resolve("in.xml");
+        Files.write(input, bytes(xml));
+        return input;
+    }
+
+    private static String read(Path path) throws Exception {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void severalBANsAreExtractedInOnePass() throws Exception {
+        Path input = input(extract(document("1"), document("2"), document("3")));
+        File output = folder.newFolder("out");
+
+        Extractor extractor = Extractor.of(Arrays.asList("3", "1", "4"), input.toString(), output.toString(), "XML");
+        extractor.runLocal();
+
+        assertEquals(new TreeSet<>(Arrays.asList("in.1.xml", "in.3.xml")), new TreeSet<>(Arrays.asList(output.list())));
+        assertTrue(read(output.toPath().resolve("in.1.xml")).contains("<TITAN_BAN>1</TITAN_BAN>"));
+        assertTrue(read(output.toPath().resolve("in.3.xml")).contains("<TITAN_BAN>3</TITAN_BAN>"));
+        assertEquals(2, extractor.getFoundBANs().size());
+    }
+
+    @Test
+    public void onlyTheFirstDocumentOfBANIsExtracted() throws Exception {
+        Path input = input(extract(document("1", "2017-10-15"), document("1", "2017-11-15")));
+        Path output = folder.getRoot().toPath().resolve("1.xml");
+
+        Extractor.of("1", input.toString(), output.toString(), "XML").runLocal();
+
+        String xml = read(output);
+        assertTrue(xml.contains("2017-10-15"));
+        assertFalse(xml.contains("2017-11-15"));
+    }
+
+    @Test
+    public void equalsSelectorWritesAllMatchedDocumentsByBAN() throws Exception {
+        Path input = input(extract(document("1"), document("2", "2017-12-15"), document("3"), document("1")));
+        File output = folder.newFolder("out");
+
+        Extractor extractor = Extractor.of(Selector.parse("Metadata/STMT_DATE=2017-11-15"), input.toString(), output.toString(), "XML");
+        extractor.runLocal();
+
+        assertEquals(new TreeSet<>(Arrays.asList("in.1.xml", "in.1_2.xml", "in.3.xml")), new TreeSet<>(Arrays.asList(output.list())));
+        assertTrue(read(output.toPath().resolve("in.3.xml")).contains("<TITAN_BAN>3</TITAN_BAN>"));
+    }
+
+    @Test
+    public void documentWithoutRowsIsProjectedToOneRecord() throws Exception {
+        String noCalls = document("2").replaceFirst("<Calls>.*</Calls>\n", "");
+        Path input = input(extract(document("1"), noCalls));
+        Path output = folder.getRoot().toPath().resolve("out.csv");
+
+        Extractor.of(Collections.<String>emptySet(), input.toString(), output.toString(), "XML").setProjection(
+                new Projection(Projection.Format.CSV).setFields("Metadata/TITAN_BAN").setRows("//Calls/Call", "Amount")).runLocal();
+
+        assertEquals("TITAN_BAN,Amount\n1,1.50\n2,\n", read(output));
+    }
+
+    @Test
+    public void rowsBeforeTitanBANAreProjected() throws Exception {
+        // Calls come before Metadata, so rows end before TITAN_BAN tells if the document is wanted
+        String callsFirst = document("2").replaceFirst("(<Metadata>.*</Metadata>\n)(<Calls>.*</Calls>\n)", "$2$1");
+        Path input = input(extract(document("1"), callsFirst, document("3")));
+        Projection projection = new Projection(Projection.Format.CSV).setFields("Metadata/TITAN_BAN").setRows("//Calls/Call", "Amount");
+
+        Path all = folder.getRoot().toPath().resolve("all.csv");
+        Extractor.of(Collections.<String>emptySet(), input.toString(), all.toString(), "XML").setProjection(projection).runLocal();
+        assertEquals("TITAN_BAN,Amount\n1,1.50\n2,1.50\n3,1.50\n", read(all));
+
+        Path wanted = folder.getRoot().toPath().resolve("wanted.csv");
+        Extractor.of(Arrays.asList("2", "3"), input.toString(), wanted.toString(), "XML").setProjection(projection).runLocal();
+        assertEquals("TITAN_BAN,Amount\n2,1.50\n3,1.50\n", read(wanted));
+
+        Path other = folder.getRoot().toPath().resolve("other.csv");
+        Extractor.of(Collections.singleton("3"), input.toString(), other.toString(), "XML").setProjection(projection).runLocal();
+        assertEquals("TITAN_BAN,Amount\n3,1.50\n", read(other));
+    }
+
+    /** Extract encoded in ISO-8859-1 with a character which isn't ASCII */
+    private Path latin1Input() throws Exception {
+        String xml = extract(document("1"), document("2").replace("<Calls>", "<Name>Caf\u00e9</Name><Calls>"), document("3"))
+                .replace("encoding=\"UTF-8\"", "encoding=\"ISO-8859-1\"");
+        Path input = folder.getRoot().toPath().resolve("latin1.xml");
+        Files.write(input, xml.getBytes(StandardCharsets.ISO_8859_1));
+        return input;
+    }
+
+    @Test
+    public void prefilteredAndIndexedInputIsDecodedByItsEncoding() throws Exception {
+        Path input = latin1Input();
+        Path parsed = folder.getRoot().toPath().resolve("parsed.xml");
+        Extractor.of("2", input.toString(), parsed.toString(), "XML").setPrefilter(false).runLocal();
+        assertTrue(read(parsed).contains("<Name>Caf\u00e9</Name>"));
+
+        Path prefiltered = folder.getRoot().toPath().resolve("prefiltered.xml");
+        Extractor.of("2", input.toString(), prefiltered.toString(), "XML").runLocal();
+        assertEquals(read(parsed), read(prefiltered));
+
+        Path indexed = folder.getRoot().toPath().resolve("indexed.xml");
+        Extractor.of("2", input.toString(), indexed.toString(), "XML").setUseIndex(true)
+                .setIndexFile(folder.getRoot().toPath().resolve("latin1.idx")).runLocal();
+        assertEquals(read(parsed), read(indexed));
+    }
+}
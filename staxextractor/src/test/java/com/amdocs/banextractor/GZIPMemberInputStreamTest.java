@@ -0,0 +1,83 @@
+package com.amdocs.banextractor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static org.junit.Assert.*;
+
+public class GZIPMemberInputStreamTest {
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(data);
+        }
+        return outputStream.toByteArray();
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (byte[] part : parts)
+            outputStream.write(part, 0, part.length);
+        return outputStream.toByteArray();
+    }
+
+    static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1)
+            outputStream.write(buffer, 0, length);
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    public void membersAreReadAsOneStreamWithTheirOffsets() throws IOException {
+        byte[] first = bytes(extract(document("1")));
+        byte[] second = bytes(document("2"));
+        byte[] firstMember = gzip(first);
+        byte[] compressed = concat(firstMember, gzip(second));
+
+        List<String> members = new ArrayList<>();
+        GZIPMemberInputStream inputStream = new GZIPMemberInputStream(new ByteArrayInputStream(compressed), 16)
+                .setMemberListener((compressedOffset, offset) -> members.add(compressedOffset + ":" + offset));
+
+        assertArrayEquals(concat(first, second), readAll(inputStream));
+        assertEquals(Arrays.asList("0:0", firstMember.length + ":" + first.length), members);
+        assertEquals(2, inputStream.getMembers());
+        assertEquals(first.length + second.length, inputStream.getPosition());
+    }
+
+    @Test
+    public void decompressionRestartsAtMember() throws IOException {
+        byte[] first = bytes(document("1"));
+        byte[] second = bytes(document("2"));
+        byte[] firstMember = gzip(first);
+        byte[] compressed = concat(firstMember, gzip(second));
+
+        GZIPMemberInputStream inputStream = new GZIPMemberInputStream(
+                new ByteArrayInputStream(compressed, firstMember.length, compressed.length - firstMember.length), 16,
+                firstMember.length, first.length);
+        assertEquals(5, inputStream.skip(5));
+
+        assertArrayEquals(Arrays.copyOfRange(second, 5, second.length), readAll(inputStream));
+        assertEquals(firstMember.length, inputStream.getMemberCompressedOffset());
+        assertEquals(first.length, inputStream.getMemberOffset());
+        assertEquals(first.length + second.length, inputStream.getPosition());
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptedMemberIsAnError() throws IOException {
+        byte[] compressed = gzip(bytes(document("1")));
+        compressed[compressed.length - 5] ^= 0x55;
+        readAll(new GZIPMemberInputStream(new ByteArrayInputStream(compressed), 16));
+    }
+}
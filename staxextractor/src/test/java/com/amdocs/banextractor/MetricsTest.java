@@ -0,0 +1,101 @@
+package com.amdocs.banextractor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static com.amdocs.banextractor.GZIPMemberInputStreamTest.readAll;
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void streamsAreCounted() throws IOException {
+        Metrics metrics = new Metrics("in.xml", 200);
+        try (InputStream inputStream = metrics.xml(metrics.input(new ByteArrayInputStream(new byte[100])))) {
+            assertEquals(0, inputStream.read());
+            assertEquals(99, readAll(inputStream).length);
+        }
+        try (OutputStream outputStream = metrics.output(new ByteArrayOutputStream())) {
+            outputStream.write(new byte[30]);
+            outputStream.write(1);
+        }
+        metrics.document();
+        metrics.found();
+
+        assertEquals(100, metrics.getInputBytes());
+        assertEquals(100, metrics.getXmlBytes());
+        assertEquals(31, metrics.getOutputBytes());
+        assertEquals(2, metrics.getDocuments());
+        assertEquals(1, metrics.getFoundDocuments());
+        assertEquals(0.5, metrics.getProgress(), 0);
+        assertTrue(metrics.getEta() >= 0);
+    }
+
+    @Test
+    public void progressOfUnknownSizeIsUnknown() {
+        Metrics metrics = new Metrics("in.xml", 0);
+        assertEquals(-1, metrics.getProgress(), 0);
+        assertEquals(-1, metrics.getEta());
+        assertTrue(metrics.toString().contains("progress=unknown"));
+        assertTrue(metrics.toString().contains("eta=unknown"));
+    }
+
+    @Test
+    public void summaryIsJson() {
+        Metrics metrics = new Metrics("C:\\extracts\\\"bills\".xml", 1000);
+        metrics.transferred(400, 0);
+        metrics.found();
+        metrics.finish();
+
+        String json = metrics.toJson();
+        assertTrue(json, json.startsWith("{\"file\":\"C:\\\\extracts\\\\\\\"bills\\\".xml\",\"size\":1000,\"elapsedMs\":"));
+        assertTrue(json, json.contains(",\"inputBytes\":400,\"xmlBytes\":400,\"outputBytes\":400,\"documents\":1,\"found\":1,"));
+        assertTrue(json, json.matches(".*\"inputMbPerSec\":\\d+\\.\\d{2},\"xmlMbPerSec\":\\d+\\.\\d{2},.*"));
+        assertTrue(json, json.matches(".*\"stagesMs\":\\{\"read\":\\d+,\"inflate\":\\d+,\"parse\":\\d+,\"write\":\\d+}}"));
+        // elapsed time stops when extraction finishes
+        assertEquals(json, metrics.toJson());
+    }
+
+    @Test
+    public void listenerGetsMetricsOfCompletedExtraction() throws Exception {
+        Path input = folder.getRoot().toPath().resolve("in.xml");
+        byte[] xml = bytes(extract(document("1"), document("2"), document("3")));
+        Files.write(input, xml);
+        List<Metrics> completed = new ArrayList<>();
+
+        Extractor.of(Arrays.asList("2"), input.toString(), folder.newFolder("out").toString(), "XML").setPrintBANs(false)
+                .setMetricsListener(new Metrics.Listener() {
+                    @Override
+                    public void progress(Metrics metrics) {
+                    }
+
+                    @Override
+                    public void completed(Metrics metrics) {
+                        completed.add(metrics);
+                    }
+                }).runLocal();
+
+        assertEquals(1, completed.size());
+        Metrics metrics = completed.get(0);
+        assertEquals(input.toString(), metrics.getInputFileName());
+        assertEquals(1, metrics.getFoundDocuments());
+        assertTrue(metrics.getOutputBytes() > 0);
+        assertTrue(metrics.getInputBytes() > 0);
+        assertTrue(metrics.getInputBytes() <= xml.length);
+    }
+}
@@ -0,0 +1,36 @@
+package com.amdocs.banextractor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static org.junit.Assert.*;
+
+public class ParallelScannerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void theFirstTitanBANOfDocumentDecides() throws IOException {
+        // TITAN_BAN of a nested element doesn't make the document the document of that BAN
+        String nested = document("9").replace("</Calls>", "<Call><TITAN_BAN>1</TITAN_BAN></Call></Calls>");
+        String first = document("1", "2017-10-15");
+        String xml = extract(nested, first, document("1", "2017-11-15"), document("2"));
+        Path path = folder.getRoot().toPath().resolve("in.xml");
+        Files.write(path, bytes(xml));
+
+        List<BANIndex.Entry> entries = new ParallelScanner(path, Arrays.asList("1", "2"), false, 2).scan();
+
+        assertEquals(2, entries.size());
+        assertEquals(new BANIndex.Entry("1", xml.indexOf(first), first.length(), xml.indexOf(first), xml.indexOf(first)), entries.get(0));
+        assertEquals("2", entries.get(1).getBAN());
+        assertEquals(3, new ParallelScanner(path, Arrays.asList("1", "2"), true, 2).scan().size());
+    }
+}
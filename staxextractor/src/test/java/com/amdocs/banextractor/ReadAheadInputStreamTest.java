@@ -0,0 +1,124 @@
+package com.amdocs.banextractor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.amdocs.banextractor.GZIPMemberInputStreamTest.readAll;
+import static org.junit.Assert.*;
+
+public class ReadAheadInputStreamTest {
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (i * 7 + i / 256);
+        return data;
+    }
+
+    /** Input which fails after its bytes */
+    private static InputStream failing(byte[] data, String message) {
+        return new SequenceInputStream(new ByteArrayInputStream(data), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException(message);
+            }
+        });
+    }
+
+    @Test
+    public void bytesAreReadThroughRingOfBuffers() throws IOException {
+        byte[] data = data(10000);
+        // buffers are reused many times, reads cross buffer boundaries
+        try (ReadAheadInputStream inputStream = new ReadAheadInputStream(new ByteArrayInputStream(data), 16, 2)) {
+            assertEquals(data[0] & 0xFF, inputStream.read());
+            byte[] rest = readAll(inputStream);
+            assertEquals(data.length - 1, rest.length);
+            for (int i = 0; i < rest.length; i++)
+                assertEquals(data[i + 1], rest[i]);
+            assertEquals(-1, inputStream.read());
+        }
+    }
+
+    @Test
+    public void producerBytesAreReadThroughRingOfBuffers() throws IOException {
+        byte[] data = data(10000);
+        try (ReadAheadInputStream inputStream = new ReadAheadInputStream((outputStream, closed) -> {
+            for (int i = 0; i < data.length; i += 5)
+                outputStream.write(data, i, Math.min(5, data.length - i));
+        }, 16, 2)) {
+            assertArrayEquals(data, readAll(inputStream));
+        }
+    }
+
+    @Test
+    public void errorOfInputIsThrownAfterItsBytes() throws IOException {
+        // bytes of buffer being filled when input fails are dropped
+        byte[] data = data(96);
+        try (ReadAheadInputStream inputStream = new ReadAheadInputStream(failing(data, "input is broken"), 16, 2)) {
+            byte[] read = new byte[96];
+            int length = 0;
+            int n;
+            while ((length < read.length) && ((n = inputStream.read(read, length, read.length - length)) != -1))
+                length += n;
+            assertArrayEquals(data, read);
+            try {
+                inputStream.read();
+                fail("Error of input is lost");
+            } catch (IOException e) {
+                assertEquals("input is broken", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void errorOfProducerIsThrownToReader() throws IOException {
+        byte[] data = data(100);
+        try (ReadAheadInputStream inputStream = new ReadAheadInputStream((outputStream, closed) -> {
+            outputStream.write(data);
+            throw new IllegalStateException("transfer is broken");
+        }, 16, 2)) {
+            readAll(inputStream);
+            fail("Error of producer is lost");
+        } catch (IOException e) {
+            assertEquals("transfer is broken", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void closeStopsThreadBlockedOnFullRing() throws IOException {
+        AtomicBoolean inputClosed = new AtomicBoolean();
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() {
+                return 'x';
+            }
+
+            @Override
+            public void close() {
+                inputClosed.set(true);
+            }
+        };
+        ReadAheadInputStream inputStream = new ReadAheadInputStream(endless, 16, 2);
+        assertEquals('x', inputStream.read());
+        inputStream.close();
+        assertTrue(inputClosed.get());
+        assertEquals(-1, inputStream.read());
+    }
+
+    @Test(timeout = 10000)
+    public void closeStopsProducerBlockedOnFullRing() throws IOException {
+        AtomicBoolean stopped = new AtomicBoolean();
+        ReadAheadInputStream inputStream = new ReadAheadInputStream((outputStream, closed) -> {
+            while (!closed.getAsBoolean())
+                outputStream.write(new byte[10]);
+            stopped.set(true);
+        }, 16, 2);
+        assertEquals(0, inputStream.read());
+        inputStream.close();
+        assertTrue(stopped.get());
+    }
+}
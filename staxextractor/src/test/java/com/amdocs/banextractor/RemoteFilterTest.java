@@ -0,0 +1,114 @@
+package com.amdocs.banextractor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static com.amdocs.banextractor.GZIPMemberInputStreamTest.*;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/** Remote command is run by local shell, like SSH server runs it */
+public class RemoteFilterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int exitCode;
+    private String errors;
+
+    @Before
+    public void shellIsThere() {
+        assumeTrue(new File("/bin/sh").canExecute());
+    }
+
+    /** Runs the command, returns its output ungzipped */
+    private String run(String command) throws Exception {
+        File stderr = folder.newFile();
+        Process process = new ProcessBuilder("/bin/sh", "-c", command).redirectError(stderr).start();
+        process.getOutputStream().close();
+        byte[] output = readAll(process.getInputStream());
+        exitCode = process.waitFor();
+        errors = new String(Files.readAllBytes(stderr.toPath()), StandardCharsets.UTF_8);
+        return output.length == 0 ? "" : new String(readAll(new GZIPInputStream(new ByteArrayInputStream(output))), StandardCharsets.UTF_8);
+    }
+
+    private Path write(String name, byte[] bytes) throws IOException {
+        Path path = folder.getRoot().toPath().resolve(name);
+        Files.write(path, bytes);
+        return path;
+    }
+
+    @Test
+    public void BANsWhichCantBePassedToShellAreRejected() {
+        for (String BAN : new String[]{"1;rm -rf ~", "1 2", "1'", "$(id)", "1,2", ""})
+            try {
+                RemoteFilter.getCommand("in.xml", Collections.singleton(BAN));
+                fail(BAN);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(BAN));
+            }
+    }
+
+    @Test
+    public void fileNameIsQuoted() throws Exception {
+        String wanted = document("1");
+        Path input = write("it's $HOME.xml", bytes(extract(wanted)));
+
+        assertTrue(RemoteFilter.getCommand(input.toString(), Collections.singleton("1")).contains("'\\''"));
+        assertEquals("<banextractor>" + wanted + "</banextractor>", run(RemoteFilter.getCommand(input.toString(), Collections.singleton("1"))));
+        assertEquals(0, exitCode);
+    }
+
+    @Test
+    public void titanBANTagWithAttributesOrWhitespaceIsFound() throws Exception {
+        String first = document("1");
+        String withAttribute = document("2").replace("<TITAN_BAN>", "<TITAN_BAN type=\"wireless\">");
+        String withWhitespace = document("3").replace("<TITAN_BAN>", "<TITAN_BAN\n>");
+        Path input = write("in.xml.gz", gzip(bytes(extract(first, withAttribute, withWhitespace))));
+
+        String output = run(RemoteFilter.getCommand(input.toString(), Arrays.asList("2", "3")));
+
+        assertEquals("<banextractor>" + withAttribute + withWhitespace + "</banextractor>", output);
+        assertEquals(0, exitCode);
+    }
+
+    @Test
+    public void commandStoppedEarlyIsNotAnError() throws Exception {
+        String wanted = document("0");
+        StringBuilder documents = new StringBuilder(wanted);
+        for (int i = 1; i < 50000; i++)
+            documents.append(document(String.valueOf(i)));
+        Path input = write("big.xml.gz", gzip(bytes(extract(documents.toString()))));
+
+        assertEquals("<banextractor>" + wanted + "</banextractor>", run(RemoteFilter.getCommand(input.toString(), Collections.singleton("0"))));
+        assertEquals(errors, 0, exitCode);
+    }
+
+    @Test
+    public void missingFileIsAnError() throws Exception {
+        run(RemoteFilter.getCommand(folder.getRoot().toPath().resolve("missing.xml.gz").toString(), Collections.singleton("1")));
+
+        assertNotEquals(0, exitCode);
+        assertTrue(errors, errors.contains("missing.xml.gz"));
+    }
+
+    @Test
+    public void corruptedInputIsAnError() throws Exception {
+        byte[] gzip = gzip(bytes(extract(document("1"), document("2"))));
+        Path input = write("bad.xml.gz", Arrays.copyOf(gzip, gzip.length / 2));
+
+        run(RemoteFilter.getCommand(input.toString(), Collections.singleton("3")));
+
+        assertNotEquals(0, exitCode);
+    }
+}
@@ -0,0 +1,128 @@
+package com.amdocs.banextractor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Random bytes aren't compressed, so every document takes about 1Kb of the cache */
+    private static byte[] document(int seed) {
+        byte[] document = new byte[1000];
+        new Random(seed).nextBytes(document);
+        return document;
+    }
+
+    private static void put(ResultCache cache, String key, byte[] document) throws IOException {
+        ResultCache.Capture capture = cache.capture(key, new ByteArrayOutputStream());
+        capture.write(document, 0, 600);
+        capture.write(document, 600, 400);
+        capture.close();
+        capture.commit();
+    }
+
+    /** Returns cached document or null */
+    private static byte[] get(ResultCache cache, String key) throws IOException {
+        Map<String, ByteArrayOutputStream> outputs = new HashMap<>();
+        if (!cache.get(key, BAN -> outputs.computeIfAbsent(BAN, b -> new ByteArrayOutputStream()), "1"))
+            return null;
+        return outputs.get("1").toByteArray();
+    }
+
+    @Test
+    public void keyDependsOnFileStatOutputModeAndBAN() {
+        String key = ResultCache.getKey("/data/in.xml", 100, 2000, false, "1");
+        assertTrue(key.matches("[0-9a-f]{40}"));
+        assertEquals(key, ResultCache.getKey("/data/in.xml", 100, 2000, false, "1"));
+        assertNotEquals(key, ResultCache.getKey("/data/in.xml", 100, 2000, true, "1"));
+        assertNotEquals(key, ResultCache.getKey("/data/in.xml", 101, 2000, false, "1"));
+        assertNotEquals(key, ResultCache.getKey("/data/in.xml", 100, 2001, false, "1"));
+        assertNotEquals(key, ResultCache.getKey("/data/in.xml", 100, 2000, false, "2"));
+        assertNotEquals(key, ResultCache.getKey("/data/in2.xml", 100, 2000, false, "1"));
+    }
+
+    @Test
+    public void committedDocumentIsHit() throws IOException {
+        ResultCache cache = new ResultCache(10000);
+        byte[] document = document(1);
+        assertNull(get(cache, "a"));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ResultCache.Capture capture = cache.capture("a", outputStream);
+        capture.write(document);
+        capture.close();
+        // document is written to the output while it is captured
+        assertArrayEquals(document, outputStream.toByteArray());
+        assertNull(get(cache, "a"));
+
+        capture.commit();
+        assertArrayEquals(document, get(cache, "a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void documentBiggerThanCacheIsNotCached() throws IOException {
+        ResultCache cache = new ResultCache(500);
+        put(cache, "a", document(1));
+        assertNull(get(cache, "a"));
+    }
+
+    @Test
+    public void leastRecentlyUsedDocumentIsEvicted() throws IOException {
+        ResultCache cache = new ResultCache(2500);
+        put(cache, "a", document(1));
+        put(cache, "b", document(2));
+        assertNotNull(get(cache, "a"));
+        put(cache, "c", document(3));
+
+        assertArrayEquals(document(1), get(cache, "a"));
+        assertNull(get(cache, "b"));
+        assertArrayEquals(document(3), get(cache, "c"));
+    }
+
+    @Test
+    public void directoryCacheIsReusedInLeastRecentlyUsedOrder() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("cache");
+        ResultCache cache = new ResultCache(2500).setDirectory(directory);
+        put(cache, "a", document(1));
+        put(cache, "b", document(2));
+        long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(directory.resolve("a.lz4"), FileTime.fromMillis(now - 20000));
+        Files.setLastModifiedTime(directory.resolve("b.lz4"), FileTime.fromMillis(now - 10000));
+        // a has been put first, but used last
+        assertNotNull(get(cache, "a"));
+
+        ResultCache next = new ResultCache(2500).setDirectory(directory);
+        put(next, "c", document(3));
+
+        assertFalse(Files.exists(directory.resolve("b.lz4")));
+        assertArrayEquals(document(1), get(next, "a"));
+        assertNull(get(next, "b"));
+        assertArrayEquals(document(3), get(next, "c"));
+    }
+
+    @Test
+    public void statIsTrustedForItsTimeToLiveByNextRun() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("cache");
+        new ResultCache(2500).setDirectory(directory).putStat("sftp://u@host:22//data/in.xml", 100, 2000);
+
+        ResultCache next = new ResultCache(2500).setDirectory(directory);
+        assertArrayEquals(new long[]{100, 2000}, next.getStat("sftp://u@host:22//data/in.xml"));
+        assertNull(next.getStat("sftp://u@host:22//data/other.xml"));
+        assertNull(next.setStatTtl(-1).getStat("sftp://u@host:22//data/in.xml"));
+    }
+}
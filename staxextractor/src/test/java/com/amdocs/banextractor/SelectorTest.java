@@ -0,0 +1,99 @@
+package com.amdocs.banextractor;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.*;
+
+public class SelectorTest {
+    /** Value of the element of path in Metadata of one document, null if it doesn't match */
+    private static String match(Selector selector, String... path) {
+        Selector.Matcher matcher = selector.matcher();
+        matcher.startDocument();
+        for (String name : path)
+            matcher.startElement(name);
+        matcher.characters(" " + path[path.length - 1] + "-value ");
+        String value = null;
+        for (int i = 0; i < path.length; i++) {
+            String matched = matcher.endElement();
+            if (matched != null)
+                value = matched;
+        }
+        return value;
+    }
+
+    private static boolean matches(String text, String value) throws IOException {
+        Selector.Matcher matcher = Selector.parse(text).matcher();
+        matcher.startDocument();
+        matcher.startElement("Metadata");
+        matcher.startElement("V");
+        matcher.characters(value);
+        return matcher.endElement() != null;
+    }
+
+    @Test
+    public void selectorWithoutOperatorPathOrValuesIsRejected() {
+        for (String text : new String[]{"Metadata/TITAN_BAN", "=1", "//=1", "Metadata/TITAN_BAN=", "Metadata/TITAN_BAN= , "})
+            try {
+                Selector.parse(text);
+                fail(text);
+            } catch (IllegalArgumentException | IOException e) {
+                assertTrue(e.getMessage().contains(text));
+            }
+    }
+
+    @Test
+    public void valuesOfEqualsSelector() throws IOException {
+        assertEquals(new LinkedHashSet<>(Arrays.asList("1", "2")), Selector.parse("Metadata/TITAN_BAN = 1, 2").getValues());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("1", "2")), Selector.parse("Metadata/TITAN_BAN in 1,2").getValues());
+        assertNull(Selector.parse("Metadata/TITAN_BAN^=1").getValues());
+        assertNull(Selector.parse("Metadata/TITAN_BAN=1..2").getValues());
+    }
+
+    @Test
+    public void onlyEqualsSelectorOfMetadataTitanBANIsListOfBANs() throws IOException {
+        assertTrue(Selector.parse("Metadata/TITAN_BAN=1").isTitanBAN());
+        assertTrue(Selector.parse("/Metadata/TITAN_BAN in 1,2").isTitanBAN());
+        assertFalse(Selector.parse("Foo/TITAN_BAN=1").isTitanBAN());
+        assertFalse(Selector.parse("TITAN_BAN=1").isTitanBAN());
+        assertFalse(Selector.parse("//Metadata/TITAN_BAN=1").isTitanBAN());
+        assertFalse(Selector.parse("Metadata/TITAN_BAN^=1").isTitanBAN());
+        assertFalse(Selector.parse("Metadata/TITAN_BAN=1..2").isTitanBAN());
+    }
+
+    @Test
+    public void pathIsRelativeToDocumentUnlessAnyDepth() throws IOException {
+        Selector selector = Selector.parse("Metadata/V=V-value");
+        assertEquals("V-value", match(selector, "Metadata", "V"));
+        assertNull(match(selector, "Calls", "Metadata", "V"));
+        assertNull(match(selector, "Other", "V"));
+        assertEquals("V-value", match(Selector.parse("//Metadata/V=V-value"), "Calls", "Metadata", "V"));
+    }
+
+    @Test
+    public void numbersAreComparedAsNumbers() {
+        assertTrue(Selector.compare("9", "10") < 0);
+        assertTrue(Selector.compare("-5", "3") < 0);
+        assertTrue(Selector.compare("-10", "-9") < 0);
+        assertTrue(Selector.compare("1.5", "10") < 0);
+        assertTrue(Selector.compare("2.50", "2.5") == 0);
+        assertTrue(Selector.compare("007", "10") < 0);
+        assertTrue(Selector.compare("2017-11-30", "2017-12-01") < 0);
+        assertTrue(Selector.compare("abc", "abd") < 0);
+    }
+
+    @Test
+    public void rangeAndPrefix() throws IOException {
+        assertTrue(matches("Metadata/V=-1.5..2", "0.25"));
+        assertTrue(matches("Metadata/V=-1.5..2", "-1.5"));
+        assertFalse(matches("Metadata/V=-1.5..2", "-2"));
+        assertFalse(matches("Metadata/V=-1.5..2", "10"));
+        assertTrue(matches("Metadata/V=..2017-11-30", "2017-11-30"));
+        assertFalse(matches("Metadata/V=2017-11-01..", "2017-10-31"));
+        assertTrue(matches("Metadata/V^=12,34", "345"));
+        assertFalse(matches("Metadata/V^=12,34", "135"));
+    }
+}
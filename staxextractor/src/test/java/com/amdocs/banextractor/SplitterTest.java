@@ -0,0 +1,58 @@
+package com.amdocs.banextractor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static org.junit.Assert.*;
+
+public class SplitterTest {
+    /** Splits input read by chunks of chunkSize, returns files by name */
+    private static Map<String, String> split(Splitter splitter, byte[] input, int chunkSize) throws IOException {
+        Map<String, ByteArrayOutputStream> files = new ConcurrentHashMap<>();
+        splitter.split(new ByteArrayInputStream(input), chunkSize, (name, append) -> {
+            ByteArrayOutputStream outputStream = append ? files.get(name) : new ByteArrayOutputStream();
+            files.put(name, outputStream);
+            return outputStream;
+        }, null, new Metrics("test", input.length));
+
+        Map<String, String> result = new ConcurrentHashMap<>();
+        files.forEach((name, outputStream) -> result.put(name, new String(outputStream.toByteArray(), StandardCharsets.UTF_8)));
+        return result;
+    }
+
+    @Test
+    public void documentsAreWrittenByBANWhateverTheChunks() throws IOException {
+        String first = document("1");
+        String second = document("2");
+        String again = document("1", "2017-12-15");
+        byte[] input = bytes(extract(first, second, again));
+
+        for (int chunkSize = 1; chunkSize <= 300; chunkSize++) {
+            Map<String, String> files = split(new Splitter(), input, chunkSize);
+            assertEquals("chunk size " + chunkSize, 3, files.size());
+            assertEquals("chunk size " + chunkSize, first, files.get("1"));
+            assertEquals("chunk size " + chunkSize, second, files.get("2"));
+            assertEquals("chunk size " + chunkSize, again, files.get("1_2"));
+        }
+    }
+
+    @Test
+    public void shardsAreBillExtracts() throws IOException {
+        Splitter splitter = new Splitter().setShards(1);
+        String first = document("1");
+        String second = document("2");
+        byte[] input = bytes(extract(first, second));
+
+        for (int chunkSize = 1; chunkSize <= 64; chunkSize++) {
+            String shard = split(splitter, input, chunkSize).get(splitter.getShardName("1"));
+            assertEquals("chunk size " + chunkSize, PROLOG + first + "\n" + second + "\n\n" + EPILOG, shard);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.amdocs.banextractor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.amdocs.banextractor.GZIPMemberInputStreamTest.readAll;
+import static org.junit.Assert.*;
+
+public class StagingBufferTest {
+    private static byte[] data(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (i * 31 + seed);
+        return data;
+    }
+
+    private static byte[] written(StagingBuffer buffer) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        buffer.writeTo(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static Set<Path> stagingFiles() throws IOException {
+        Set<Path> files = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(System.getProperty("java.io.tmpdir")), "banextractor*.staging")) {
+            for (Path file : stream)
+                files.add(file);
+        }
+        return files;
+    }
+
+    @Test
+    public void bytesUpToThresholdAreKeptInMemory() throws IOException {
+        Set<Path> before = stagingFiles();
+        try (StagingBuffer buffer = new StagingBuffer(100)) {
+            byte[] data = data(100, 1);
+            buffer.write(data, 0, 60);
+            buffer.write(data, 60, 40);
+
+            assertEquals(100, buffer.size());
+            assertArrayEquals(data, written(buffer));
+            try (InputStream inputStream = buffer.getInputStream()) {
+                assertArrayEquals(data, readAll(inputStream));
+            }
+            assertEquals(before, stagingFiles());
+        }
+    }
+
+    @Test
+    public void bytesOverThresholdAreSpilledToTemporaryFile() throws IOException {
+        Set<Path> before = stagingFiles();
+        byte[] data = data(1000, 2);
+        StagingBuffer buffer = new StagingBuffer(100);
+        buffer.write(data, 0, 99);
+        buffer.write(data[99]);
+        buffer.write(data[100]);
+        buffer.write(data, 101, 899);
+
+        assertEquals(1000, buffer.size());
+        assertEquals(1, stagingFiles().size() - before.size());
+        assertArrayEquals(data, written(buffer));
+        try (InputStream inputStream = buffer.getInputStream()) {
+            assertArrayEquals(data, readAll(inputStream));
+        }
+        // buffer isn't cleared by reading
+        assertArrayEquals(data, written(buffer));
+
+        buffer.close();
+        assertEquals(0, buffer.size());
+        assertEquals(before, stagingFiles());
+    }
+
+    @Test
+    public void resetReopensTemporaryFile() throws IOException {
+        byte[] first = data(500, 3);
+        byte[] second = data(150, 4);
+        try (StagingBuffer buffer = new StagingBuffer(100)) {
+            buffer.write(first);
+            buffer.reset();
+            assertEquals(0, buffer.size());
+            assertArrayEquals(new byte[0], written(buffer));
+
+            // shorter document overwrites the spilled one
+            buffer.write(second);
+            assertEquals(150, buffer.size());
+            assertArrayEquals(second, written(buffer));
+
+            buffer.reset();
+            buffer.write(first, 0, 50);
+            try (InputStream inputStream = buffer.getInputStream()) {
+                assertArrayEquals(Arrays.copyOf(first, 50), readAll(inputStream));
+            }
+        }
+    }
+}
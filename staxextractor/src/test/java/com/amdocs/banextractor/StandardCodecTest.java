@@ -0,0 +1,75 @@
+package com.amdocs.banextractor;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static com.amdocs.banextractor.BillExtracts.*;
+import static com.amdocs.banextractor.GZIPMemberInputStreamTest.readAll;
+import static org.junit.Assert.*;
+
+public class StandardCodecTest {
+    private static byte[] compress(Codec codec, byte[] data, int level) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (OutputStream compressor = codec.compress(outputStream, "1.xml", level, 1024)) {
+            // several writes, so more than one block of small LZ4 frame
+            for (int i = 0; i < data.length; i += 1000)
+                compressor.write(data, i, Math.min(1000, data.length - i));
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        BufferedInputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(compressed));
+        Codec codec = Codec.detect(inputStream, Arrays.asList(StandardCodec.values()));
+        try (InputStream decompressed = codec.decompress(inputStream, 1024)) {
+            return readAll(decompressed);
+        }
+    }
+
+    private static byte[] input() {
+        StringBuilder documents = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            documents.append(document(String.valueOf(i)));
+        return bytes(extract(documents.toString()));
+    }
+
+    @Test
+    public void compressedOutputIsDetectedAndDecompressed() throws IOException {
+        byte[] data = input();
+        for (StandardCodec codec : StandardCodec.values())
+            for (int level : new int[]{Codec.DEFAULT_LEVEL, 1, 9}) {
+                byte[] compressed = compress(codec, data, level);
+                BufferedInputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(compressed));
+                assertEquals(codec + " level " + level, codec, Codec.detect(inputStream, Arrays.asList(StandardCodec.values())));
+                assertArrayEquals(codec + " level " + level, data, decompress(compressed));
+                if (codec != StandardCodec.NONE)
+                    assertTrue(codec + " level " + level, compressed.length < data.length / 2);
+            }
+    }
+
+    @Test
+    public void lz4HighCompressionIsSmallerThanFast() throws IOException {
+        byte[] data = input();
+        assertTrue(compress(StandardCodec.LZ4, data, 9).length < compress(StandardCodec.LZ4, data, Codec.DEFAULT_LEVEL).length);
+    }
+
+    @Test
+    public void zipHasOneNamedEntry() throws IOException {
+        byte[] data = bytes(extract(document("1")));
+        try (ZipInputStream inputStream = new ZipInputStream(new ByteArrayInputStream(compress(StandardCodec.ZIP, data, 9)))) {
+            ZipEntry entry = inputStream.getNextEntry();
+            assertEquals("1.xml", entry.getName());
+            assertArrayEquals(data, readAll(inputStream));
+            assertNull(inputStream.getNextEntry());
+        }
+    }
+}